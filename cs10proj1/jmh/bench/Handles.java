@@ -0,0 +1,49 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Gets at the classes being benchmarked. They're in the default package, which can't be imported
+ * (and JMH won't generate benchmarks there), so their public methods are looked up by name.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class Handles {
+	/**
+	 * A public static method.
+	 */
+	public static MethodHandle staticMethod(String cls, String name, Class<?> ret, Class<?>... params) {
+		try {
+			return MethodHandles.publicLookup().findStatic(Class.forName(cls), name, MethodType.methodType(ret, params));
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A public instance method.
+	 */
+	public static MethodHandle method(String cls, String name, Class<?> ret, Class<?>... params) {
+		try {
+			return MethodHandles.publicLookup().findVirtual(Class.forName(cls), name, MethodType.methodType(ret, params));
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A public constructor.
+	 */
+	public static MethodHandle constructor(String cls, Class<?>... params) {
+		try {
+			return MethodHandles.publicLookup().findConstructor(Class.forName(cls), MethodType.methodType(void.class, params));
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
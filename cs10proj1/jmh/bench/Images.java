@@ -0,0 +1,70 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+import static com.googlecode.javacv.cpp.opencv_core.*;
+import static com.googlecode.javacv.cpp.opencv_highgui.*;
+
+/**
+ * The images to benchmark on, by name: any of the bundled ones in img/ (e.g., "baker", 400x300,
+ * or "dart0", 800x600), or "4k" for a synthetic 3840x2160 frame.
+ * Each is loaded or made once; callers get their own copy.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class Images {
+	private static HashMap<String, CvMat> loaded = new HashMap<String, CvMat>();
+
+	/**
+	 * A copy of the named image.
+	 */
+	public static synchronized CvMat get(String name) {
+		CvMat image = loaded.get(name);
+		if (image == null) {
+			if (name.equals("4k")) {
+				image = synthetic(2160, 3840, 1);
+			}
+			else {
+				image = cvLoadImageM("img/" + name + ".jpg");
+				if (image == null) {
+					throw new IllegalArgumentException("img/" + name + ".jpg not found (run from cs10proj1)");
+				}
+			}
+			loaded.put(name, image);
+		}
+		return image.clone();
+	}
+
+	/**
+	 * A made-up image, with smooth gradients (so that neighborhood operations have something to work with)
+	 * plus some noise; the same each time for the same seed.
+	 * @param rows		height
+	 * @param cols		width
+	 * @param seed		random seed
+	 */
+	public static CvMat synthetic(int rows, int cols, long seed) {
+		CvMat image = CvMat.create(rows, cols, CV_8UC3);
+		SplittableRandom random = new SplittableRandom(seed);
+		ByteBuffer buf = image.getByteBuffer();
+		byte[] row = new byte[cols * 3];
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				row[j * 3] = (byte) (255 * j / cols + random.nextInt(16));
+				row[j * 3 + 1] = (byte) (255 * i / rows + random.nextInt(16));
+				row[j * 3 + 2] = (byte) (128 + random.nextInt(64));
+			}
+			buf.position(i * image.step());
+			buf.put(row);
+		}
+		return image;
+	}
+
+	/**
+	 * Number of pixels in an image.
+	 */
+	public static long pixels(CvMat image) {
+		return (long) image.rows() * image.cols();
+	}
+}
@@ -0,0 +1,24 @@
+package bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Scope;
+
+/**
+ * Counts the pixels processed, so JMH reports time per pixel (as the "pixels" result) alongside time per operation.
+ * A benchmark takes one of these as a parameter and adds the size of the image it worked on.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Pixels {
+	public long pixels;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		pixels = 0;
+	}
+}
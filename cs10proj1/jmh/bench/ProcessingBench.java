@@ -0,0 +1,49 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * ImageProcessing's operations, each given as a command (as typed at its prompt, see ImageProcessing.dispatch).
+ * The image keeps being processed over an iteration (e.g., dimmed again and again); none of the operations
+ * take more or less time depending on the pixel values.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Djava.awt.headless=true"})
+public class ProcessingBench {
+	private static final MethodHandle create = Handles.constructor("ImageProcessing", CvMat.class, CvMat.class);
+	private static final MethodHandle dispatch = Handles.method("ImageProcessing", "dispatch", void.class, String.class);
+	private static final MethodHandle getImage = Handles.method("ImageProcessing", "getImage", CvMat.class);
+
+	@Param({"a", "a5", "b", "c", "d", "f", "g", "h", "k", "m", "n", "r", "v1", "v8", "v30", "y", "z1", "z8", "z32", "D", "E"})
+	public String op;
+
+	@Param({"baker", "dart0", "4k"})
+	public String image;
+
+	private Object proc;	// the ImageProcessing
+	private long pixels;
+
+	@Setup(Level.Iteration)
+	public void setup() throws Throwable {
+		CvMat m = Images.get(image);
+		// A mixin of the same size, to blend with.
+		proc = create.invoke(m, Images.synthetic(m.rows(), m.cols(), 2));
+		pixels = Images.pixels(m);
+	}
+
+	@Benchmark
+	public Object run(Pixels counter) throws Throwable {
+		dispatch.invoke(proc, op);
+		counter.pixels += pixels;
+		return getImage.invoke(proc);
+	}
+}
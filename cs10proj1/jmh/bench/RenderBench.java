@@ -0,0 +1,59 @@
+package bench;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Render's mosaic and pointillism, drawing into an offscreen image instead of the window.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Djava.awt.headless=true"})
+public class RenderBench {
+	private static final MethodHandle mosaic = Handles.staticMethod("Render", "mosaic", void.class,
+			CvMat.class, java.awt.Graphics.class);
+	private static final MethodHandle pointillism = Handles.staticMethod("Render", "pointillism", void.class,
+			CvMat.class, java.awt.Graphics.class, long.class);
+
+	@Param({"baker", "dart0", "4k"})
+	public String image;
+
+	private CvMat source;
+	private BufferedImage canvas;
+	private Graphics2D g;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		source = Images.get(image);
+		canvas = new BufferedImage(source.cols(), source.rows(), BufferedImage.TYPE_3BYTE_BGR);
+		g = canvas.createGraphics();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		g.dispose();
+	}
+
+	@Benchmark
+	public Object mosaic(Pixels counter) throws Throwable {
+		counter.pixels += Images.pixels(source);
+		mosaic.invoke(source, g);
+		return canvas;
+	}
+
+	@Benchmark
+	public Object pointillism(Pixels counter) throws Throwable {
+		counter.pixels += Images.pixels(source);
+		pointillism.invoke(source, g, 1L);
+		return canvas;
+	}
+}
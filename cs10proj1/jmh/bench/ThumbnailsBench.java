@@ -0,0 +1,39 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Thumbnails.scale, down to a third in each direction (as for the 3x3 thumbnails).
+ * Time per pixel is per source pixel.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Djava.awt.headless=true"})
+public class ThumbnailsBench {
+	private static final MethodHandle scale = Handles.staticMethod("Thumbnails", "scale", CvMat.class,
+			CvMat.class, int.class, int.class);
+
+	@Param({"baker", "dart0", "4k"})
+	public String image;
+
+	private CvMat source;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		source = Images.get(image);
+	}
+
+	@Benchmark
+	public Object scale(Pixels counter) throws Throwable {
+		counter.pixels += Images.pixels(source);
+		return scale.invoke(source, source.cols()/3, source.rows()/3);
+	}
+}
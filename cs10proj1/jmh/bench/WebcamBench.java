@@ -0,0 +1,69 @@
+package bench;
+
+import java.awt.Color;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The per-frame processing of the webcam programs, on still images instead of the camera:
+ * WebcamBg.bgSubtract and WebcamColorTracking.track.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Djava.awt.headless=true"})
+public class WebcamBench {
+	private static final MethodHandle bgSubtract = Handles.staticMethod("WebcamBg", "bgSubtract", void.class,
+			CvMat.class, CvMat.class, CvMat.class);
+	private static final MethodHandle track = Handles.staticMethod("WebcamColorTracking", "track", java.awt.Point.class,
+			CvMat.class, Color.class);
+
+	@Param({"baker", "dart0", "4k"})
+	public String image;
+
+	private CvMat frame;			// the "camera" frame
+	private CvMat work;				// what bgSubtract updates
+	private CvMat background;	// the frame with some noise, so some pixels count as background and some don't
+	private CvMat scenery;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		frame = Images.get(image);
+		work = frame.clone();
+		CvMat noise = Images.synthetic(frame.rows(), frame.cols(), 3);
+		background = frame.clone();
+		for (int i = 0; i < frame.rows(); i += 2) {
+			for (int j = 0; j < frame.cols(); j++) {
+				background.put(i, j, 0, noise.get(i, j, 0));
+			}
+		}
+		scenery = Images.synthetic(frame.rows(), frame.cols(), 4);
+	}
+
+	/**
+	 * bgSubtract replaces pixels in place, so start each time from the original frame.
+	 */
+	@Setup(Level.Invocation)
+	public void restore() {
+		work.getByteBuffer().put(frame.getByteBuffer());
+	}
+
+	@Benchmark
+	public Object bgSubtract(Pixels counter) throws Throwable {
+		counter.pixels += Images.pixels(frame);
+		bgSubtract.invoke(work, background, scenery);
+		return work;
+	}
+
+	@Benchmark
+	public Object track(Pixels counter) throws Throwable {
+		counter.pixels += Images.pixels(frame);
+		return track.invoke(frame, Color.white);
+	}
+}
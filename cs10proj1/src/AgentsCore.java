@@ -2,6 +2,7 @@ import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
 import java.util.ArrayList;
+import java.util.SplittableRandom;
 
 /**
  * Animated agents.
@@ -46,13 +47,14 @@ public class AgentsCore extends JFrame {
 	private class Agent {
 		protected double x, y;	// position
 		protected int r=5;			// radius; defaults to 5
+		protected SplittableRandom random = RandomSource.split();	// this agent's own random numbers
 
 		/**
 		 * Initializes at random position (and default radius)
 		 */
 		public Agent() {
-			x = Math.random()*width;
-			y = Math.random()*height;
+			x = random.nextDouble()*width;
+			y = random.nextDouble()*height;
 		}
 
 		/**
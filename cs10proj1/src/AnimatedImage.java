@@ -3,9 +3,9 @@ import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
+import java.util.SplittableRandom;
 import javax.swing.*;
 import static com.googlecode.javacv.cpp.opencv_core.*;
-import static com.googlecode.javacv.cpp.opencv_highgui.*;
 
 /**
  * Custom rendering of an image, by animated agents.
@@ -19,6 +19,7 @@ public class AnimatedImage extends JFrame {
 	private static final int radius = 5;				// setup: agent size
 	private static final int numToMove = 1000;	// setup: how many agents to animate each frame
 	private int width, height;				// size of window, based on image size and agent size
+	private SplittableRandom random = RandomSource.split();	// for picking which agents to move
 	
 	public AnimatedImage() {
 		// Make sure superclass (JFrame) is also properly initialized.
@@ -26,7 +27,7 @@ public class AnimatedImage extends JFrame {
 
 		// Read an image and make sure it was successfully loaded.
 		// Use a small one!
-		image = cvLoadImageM("img/baker-200-150.jpeg");
+		image = ImageCache.load("img/baker-200-150.jpeg");
 		if (image == null) {
 			System.out.println("image not found!");
 			System.exit(1);
@@ -56,7 +57,7 @@ public class AnimatedImage extends JFrame {
 			public void actionPerformed(ActionEvent e) {
 				for (int a = 0; a < numToMove; a++) {
 					// Pick a random agent and ask it to move.
-					agents.get((int) (Math.random() * agents.size())).move();
+					agents.get((int) (random.nextDouble() * agents.size())).move();
 				}
 				canvas.repaint();
 			}
@@ -81,6 +82,7 @@ public class AnimatedImage extends JFrame {
 		protected double x, y;
 		protected int r;
 		protected Color color;
+		protected SplittableRandom random = RandomSource.split();	// this agent's own random numbers
 
 		public Agent(double x, double y, int r, Color color) {
 			this.x = x;
@@ -108,8 +110,8 @@ public class AnimatedImage extends JFrame {
 		}
 
 		public void move() {
-			x += r * 2 * (Math.random() - 0.5);
-			y += r * 2 * (Math.random() - 0.5);
+			x += r * 2 * (random.nextDouble() - 0.5);
+			y += r * 2 * (random.nextDouble() - 0.5);
 		}
 	}
 
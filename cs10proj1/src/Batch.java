@@ -0,0 +1,249 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+import static com.googlecode.javacv.cpp.opencv_highgui.*;
+
+/**
+ * Headless ImageProcessing over a whole directory of images:
+ *   java Batch <input dir> "<script>" <output dir> [mixin image]
+ * where the script is a list of ImageProcessing commands separated by spaces (e.g., "g d0.8 a3"),
+ * which each processing thread compiles into a Macro, so the point commands run in fused passes and the buffers are reused.
+ * Each image is run through the script and saved under the same name in the output directory.
+ * The work is done in three stages, each with its own threads, connected by bounded queues:
+ * decoding (I/O), processing (CPU), and encoding (I/O). So reading and writing files overlaps with
+ * processing, and a fast stage can't get more than a few images ahead of a slow one.
+ * The batch.io, batch.cpu, and batch.queue system properties set the number of threads for each I/O stage,
+ * the number of images processed at once, and the queue capacity.
+ * At the end, reports the throughput and how long each stage took per image.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class Batch {
+	private static final String interactive = "isuUw";	// commands that make no sense here
+
+	/**
+	 * An image making its way through the stages.
+	 */
+	private static class Job {
+		File file;		// where it came from
+		CvMat image;	// its pixels, as decoded and then as processed
+	}
+
+	private static final Job done = new Job();	// put on a queue to tell the next stage there's nothing more
+
+	/**
+	 * Time taken by the images in a stage.
+	 */
+	private static class Stage {
+		String name;
+		int count;
+		long total, max;	// nanoseconds
+
+		Stage(String name) {
+			this.name = name;
+		}
+
+		synchronized void add(long start) {
+			long t = System.nanoTime() - start;
+			count++;
+			total += t;
+			max = Math.max(max, t);
+		}
+
+		public synchronized String toString() {
+			return name + ": " + count + " images, avg " + String.format("%.1f", total / 1e6 / Math.max(1, count))
+					+ "ms, max " + String.format("%.1f", max / 1e6) + "ms";
+		}
+	}
+
+	private File[] files;											// the input images
+	private String[] script;									// the commands to run on each one
+	private File outDir;
+	private CvMat mixin;											// for blending
+	private BlockingQueue<Job> decoded, processed;
+	private AtomicInteger next = new AtomicInteger();	// index of the next file to decode
+	private AtomicInteger written = new AtomicInteger();	// how many images were saved
+	private Stage decode = new Stage("decode"), process = new Stage("process"), encode = new Stage("encode");
+
+	public Batch(File[] files, String[] script, File outDir, CvMat mixin, int queue) {
+		this.files = files;
+		this.script = script;
+		this.outDir = outDir;
+		this.mixin = mixin;
+		decoded = new ArrayBlockingQueue<Job>(queue);
+		processed = new ArrayBlockingQueue<Job>(queue);
+	}
+
+	/**
+	 * Decodes files until there are no more.
+	 */
+	private void decode() throws InterruptedException {
+		int i;
+		while ((i = next.getAndIncrement()) < files.length) {
+			long start = System.nanoTime();
+			Job job = new Job();
+			job.file = files[i];
+			job.image = cvLoadImageM(job.file.getPath());
+			if (job.image == null) {
+				System.out.println(job.file + " couldn't be read");
+				continue;
+			}
+			decode.add(start);
+			decoded.put(job);
+		}
+	}
+
+	/**
+	 * Runs the script on decoded images until told there are no more.
+	 */
+	private void process() throws InterruptedException {
+		// Compiled once for this thread (since it keeps its buffers from one image to the next).
+		Macro plan = new Macro("script", script);
+		Job job;
+		while ((job = decoded.take()) != done) {
+			long start = System.nanoTime();
+			try {
+				ImageProcessing proc = new ImageProcessing(job.image, mixin);
+				proc.runMacro(plan);
+				job.image = proc.getImage();
+			}
+			catch (RuntimeException e) {
+				// Report it and go on to the other images.
+				System.out.println(job.file + " couldn't be processed: " + e);
+				continue;
+			}
+			process.add(start);
+			processed.put(job);
+		}
+	}
+
+	/**
+	 * Encodes processed images until told there are no more.
+	 */
+	private void encode() throws InterruptedException {
+		Job job;
+		while ((job = processed.take()) != done) {
+			long start = System.nanoTime();
+			File out = new File(outDir, job.file.getName());
+			if (cvSaveImage(out.getPath(), job.image.asIplImage()) == 0) {
+				System.out.println(out + " couldn't be written");
+				continue;
+			}
+			encode.add(start);
+			written.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Starts the given number of threads all doing the same stage.
+	 */
+	private static Thread[] start(int n, String name, Runnable body) {
+		Thread[] threads = new Thread[n];
+		for (int t = 0; t < n; t++) {
+			threads[t] = new Thread(body, name + "-" + t);
+			threads[t].start();
+		}
+		return threads;
+	}
+
+	/**
+	 * Waits for the threads to finish and then tells the next stage (with one "done" for each of its threads).
+	 */
+	private static void finish(Thread[] threads, BlockingQueue<Job> queue, int consumers) throws InterruptedException {
+		for (Thread t : threads) t.join();
+		if (queue != null) {
+			for (int c = 0; c < consumers; c++) queue.put(done);
+		}
+	}
+
+	/**
+	 * Runs all the stages to completion, and reports how it went.
+	 * @param io		threads for each I/O stage
+	 * @param cpu		threads for processing
+	 */
+	public void run(int io, int cpu) throws InterruptedException {
+		long start = System.nanoTime();
+		Thread[] decoders = start(io, "decode", new Runnable() {
+			public void run() {
+				try { decode(); } catch (InterruptedException e) { }
+			}
+		});
+		Thread[] processors = start(cpu, "process", new Runnable() {
+			public void run() {
+				try { process(); } catch (InterruptedException e) { }
+			}
+		});
+		Thread[] encoders = start(io, "encode", new Runnable() {
+			public void run() {
+				try { encode(); } catch (InterruptedException e) { }
+			}
+		});
+		finish(decoders, decoded, cpu);
+		finish(processors, processed, io);
+		finish(encoders, null, 0);
+		double secs = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(written.get() + " of " + files.length + " images in " + String.format("%.2f", secs) + "s: "
+				+ String.format("%.1f", written.get() / secs) + " images/sec");
+		System.out.println(decode);
+		System.out.println(process);
+		System.out.println(encode);
+		System.out.print(OpStats.summary());
+	}
+
+	/**
+	 * Whether a file looks like an image that can be decoded.
+	 */
+	private static boolean isImage(File f) {
+		String name = f.getName().toLowerCase();
+		return f.isFile() && (name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png") || name.endsWith(".bmp"));
+	}
+
+	/**
+	 * Processes the images in a directory.
+	 * @param args		input directory, script, output directory, and optionally mixin image (img/rain.jpg by default)
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length < 3) {
+			System.out.println("usage: java Batch <input dir> \"<script>\" <output dir> [mixin image]");
+			System.exit(1);
+		}
+		File inDir = new File(args[0]), outDir = new File(args[2]);
+		String[] script = args[1].trim().split("\\s+");
+		for (String op : script) {
+			if (!ImageProcessing.isCommand(op) || interactive.indexOf(op.charAt(0)) >= 0) {
+				System.out.println("Unknown operation " + op);
+				System.exit(1);
+			}
+		}
+
+		// Gather up the images, in name order.
+		File[] all = inDir.listFiles();
+		if (all == null) {
+			System.out.println(inDir + " isn't a directory");
+			System.exit(1);
+		}
+		ArrayList<File> files = new ArrayList<File>();
+		for (File f : all) {
+			if (isImage(f)) files.add(f);
+		}
+		File[] sorted = files.toArray(new File[files.size()]);
+		Arrays.sort(sorted);
+
+		outDir.mkdirs();
+		CvMat mixin = cvLoadImageM(args.length > 3 ? args[3] : "img/rain.jpg");
+		if (mixin == null) {
+			System.out.println("mixin image not found!");
+			System.exit(1);
+		}
+
+		int io = Integer.getInteger("batch.io", 2);
+		int cpu = Integer.getInteger("batch.cpu", 2);
+		int queue = Integer.getInteger("batch.queue", 4);
+		new Batch(sorted, script, outDir, mixin, queue).run(Math.max(1, io), Math.max(1, cpu));
+	}
+}
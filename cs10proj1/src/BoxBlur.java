@@ -0,0 +1,90 @@
+/**
+ * Box blur whose cost per pixel doesn't depend on the radius.
+ * Rather than re-summing the whole box around each pixel, keeps running sums:
+ * first along each row, then down each column of those row sums.
+ * At the borders the box shrinks to the part inside the image, just as in
+ * ImageProcessing's original nested-loop average.
+ * Both passes run on the TileScheduler; in the second, each band of rows first sums up
+ * the halo of rows just above it, so it can start its running sums where the previous band left off.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class BoxBlur {
+	/**
+	 * Blurs an image by setting each pixel's values to the average of those in a radius-sized box around it.
+	 * @param image		image to blur (not modified)
+	 * @param radius	size of box; e.g., 1 indicates +-1 around the pixel
+	 * @return				blurred image
+	 */
+	public static Raster blur(Raster image, int radius) {
+		return blur(image, radius, image.blankCopy());
+	}
+
+	/**
+	 * Blurs an image as above, into a given raster.
+	 * @param image		image to blur (not modified)
+	 * @param radius	size of box; e.g., 1 indicates +-1 around the pixel
+	 * @param result	where to put the blurred image (the same size, but not the image itself)
+	 * @return				result
+	 */
+	public static Raster blur(final Raster image, final int radius, final Raster result) {
+		final int rows = image.rows, cols = image.cols, nch = image.channels, stride = image.stride;
+		final byte[] pixels = image.data;
+
+		// Horizontal pass: slide a window along each row, adding the entering column and dropping the leaving one.
+		final int[] rowSums = new int[pixels.length];
+		TileScheduler.forRows(image, new TileScheduler.Band() {
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					int base = i * stride;
+					for (int c = 0; c < nch; c++) {
+						int sum = 0;
+						// Prime the window with columns 0..radius-1 (those to the right of "column -1").
+						for (int j = 0; j < Math.min(cols, radius); j++) {
+							sum += pixels[base + j * nch + c] & 0xff;
+						}
+						for (int j = 0; j < cols; j++) {
+							if (j + radius < cols) sum += pixels[base + (j + radius) * nch + c] & 0xff;
+							if (j - radius - 1 >= 0) sum -= pixels[base + (j - radius - 1) * nch + c] & 0xff;
+							rowSums[base + j * nch + c] = sum;
+						}
+					}
+				}
+			}
+		});
+
+		// Vertical pass: the same sliding window down each column of row sums,
+		// but keeping one running sum per column and moving row by row (friendlier to the cache).
+		// Divide by the number of pixels in the (possibly shrunken) box as we go.
+		final Kernels k = Kernels.get();
+		TileScheduler.forRows(image, new TileScheduler.Band() {
+			public void run(int from, int to) {
+				// Start with the rows the window covers just before row "from" gets its entering row.
+				int[] colSums = new int[stride];
+				for (int i = Math.max(0, from - radius - 1); i < Math.min(rows, from + radius); i++) {
+					for (int k = 0; k < stride; k++) {
+						colSums[k] += rowSums[i * stride + k];
+					}
+				}
+				for (int i = from; i < to; i++) {
+					int enter = (i + radius) * stride, leave = (i - radius - 1) * stride, out = i * stride;
+					for (int k = 0; k < stride; k++) {
+						if (i + radius < rows) colSums[k] += rowSums[enter + k];
+						if (i - radius - 1 >= 0) colSums[k] -= rowSums[leave + k];
+					}
+					// Number of rows the box covers
+					int nr = Math.min(rows, i + 1 + radius) - Math.max(0, i - radius);
+					// Integer division truncates, just like storing sum/n into the 8-bit image did.
+					// Away from the left and right edges, the box is always the same width, so those columns are divided in one run.
+					for (int j = 0; j < cols; ) {
+						int nc = Math.min(cols, j + 1 + radius) - Math.max(0, j - radius);
+						int end = j >= radius ? Math.max(j + 1, cols - radius) : j + 1;
+						k.divide(colSums, j * nch, result.data, out + j * nch, (end - j) * nch, nr * nc);
+						j = end;
+					}
+				}
+			}
+		});
+		return result;
+	}
+}
@@ -0,0 +1,362 @@
+import java.util.Arrays;
+
+/**
+ * Convolution of images with arbitrary kernels: each result value is a weighted sum of the values in a box around it,
+ * divided by the kernel's divisor, plus its offset (e.g., 128 to center results that can be negative), kept within 0-255.
+ * Kernels whose weights are all integers are summed in ints, exactly; others in floats.
+ * A kernel that's an outer product of a column and a row (such as a box or Gaussian) is separable: convolving with
+ * the row and then the column is the same thing, at a cost per pixel of its width plus height, rather than times.
+ * Kernels are checked for that when they're made, and if so run in two 1D passes.
+ * Off the edges of the image, values come from the border mode: CLAMP repeats the edge pixel, MIRROR reflects
+ * the image about its edge pixel, and WRAP takes them from the other side.
+ * To keep the inner loops free of edge checks, each row is first copied, with its border, into an int array,
+ * over which each weight is then applied to a whole row's worth of values at once.
+ * Everything runs in bands of rows on the TileScheduler.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class Convolution {
+	// Border modes
+	public static final int CLAMP = 0;
+	public static final int MIRROR = 1;
+	public static final int WRAP = 2;
+	public static final String[] borderNames = { "clamp", "mirror", "wrap" };
+
+	// Some kernels
+	public static Kernel box(int r) { return new Kernel(fill(2 * r + 1, 1), (2 * r + 1) * (2 * r + 1), 0); }
+	public static Kernel sharpen(int r) { return new Kernel(center(fill(2 * r + 1, -1), (2 * r + 1) * (2 * r + 1)), 1, 0); }
+	public static final Kernel emboss = new Kernel(new int[][] { { -2, -1, 0 }, { -1, 1, 1 }, { 0, 1, 2 } }, 1, 0);
+	public static final Kernel edge = new Kernel(new int[][] { { -1, -1, -1 }, { -1, 8, -1 }, { -1, -1, -1 } }, 1, 0);
+
+	/**
+	 * Weights, and what to do with their sum.
+	 */
+	public static class Kernel {
+		public final int rows, cols;		// size (both odd, centered on the pixel)
+		private final int[] ints;				// the weights, row after row, if they're all integers; else null
+		private final float[] floats;		// the weights, row after row
+		private final int divisor, offset;
+		private int[] intColumn, intRow;				// if separable (and integer), the column and row whose outer product this is
+		private float[] floatColumn, floatRow;	// if separable (and not integer), the same
+
+		/**
+		 * An integer kernel.
+		 * @param w				the weights, w[row][column]
+		 * @param divisor	what to divide the sum by
+		 * @param offset	what to add after that
+		 */
+		public Kernel(int[][] w, int divisor, int offset) {
+			this(toFloats(w), divisor, offset);
+		}
+
+		/**
+		 * A kernel (which is still summed in ints if the weights happen to all be integers).
+		 * @param w				the weights, w[row][column]
+		 * @param divisor	what to divide the sum by
+		 * @param offset	what to add after that
+		 */
+		public Kernel(float[][] w, int divisor, int offset) {
+			rows = w.length;
+			cols = w[0].length;
+			if (rows % 2 == 0 || cols % 2 == 0) throw new IllegalArgumentException("kernel must be odd by odd");
+			if (divisor == 0) throw new IllegalArgumentException("divisor must not be 0");
+			this.divisor = divisor;
+			this.offset = offset;
+			floats = new float[rows * cols];
+			boolean integer = true;
+			for (int i = 0; i < rows; i++) {
+				for (int j = 0; j < cols; j++) {
+					floats[i * cols + j] = w[i][j];
+					if (w[i][j] != (int) w[i][j]) integer = false;
+				}
+			}
+			ints = integer ? new int[rows * cols] : null;
+			if (integer) {
+				for (int q = 0; q < floats.length; q++) ints[q] = (int) floats[q];
+			}
+			separate();
+		}
+
+		/**
+		 * Checks whether this is separable: every row a multiple of the same row (the first with a non-0 weight).
+		 * With integer weights, the row is divided down by the gcd of its weights, and then the multiples are integers too.
+		 */
+		private void separate() {
+			if (rows == 1 && cols == 1) return;
+			// Find a non-0 weight.
+			int r0 = -1, c0 = -1;
+			for (int q = 0; q < floats.length && r0 < 0; q++) {
+				if (floats[q] != 0) {
+					r0 = q / cols;
+					c0 = q % cols;
+				}
+			}
+			if (r0 < 0) return;
+			if (ints != null) {
+				// Rank 1 if every 2x2 "determinant" with the non-0 weight's row and column is 0.
+				for (int i = 0; i < rows; i++) {
+					for (int j = 0; j < cols; j++) {
+						if ((long) ints[i * cols + j] * ints[r0 * cols + c0] != (long) ints[i * cols + c0] * ints[r0 * cols + j]) return;
+					}
+				}
+				int g = 0;
+				for (int j = 0; j < cols; j++) g = gcd(g, ints[r0 * cols + j]);
+				intRow = new int[cols];
+				for (int j = 0; j < cols; j++) intRow[j] = ints[r0 * cols + j] / g;
+				intColumn = new int[rows];
+				for (int i = 0; i < rows; i++) intColumn[i] = ints[i * cols + c0] / intRow[c0];
+			}
+			else {
+				float scale = 0;
+				for (float f : floats) scale = Math.max(scale, Math.abs(f));
+				for (int i = 0; i < rows; i++) {
+					for (int j = 0; j < cols; j++) {
+						float predicted = floats[i * cols + c0] * floats[r0 * cols + j] / floats[r0 * cols + c0];
+						if (Math.abs(floats[i * cols + j] - predicted) > 1e-6f * scale) return;
+					}
+				}
+				floatRow = new float[cols];
+				for (int j = 0; j < cols; j++) floatRow[j] = floats[r0 * cols + j] / floats[r0 * cols + c0];
+				floatColumn = new float[rows];
+				for (int i = 0; i < rows; i++) floatColumn[i] = floats[i * cols + c0];
+			}
+		}
+
+		/**
+		 * Whether it's run in two 1D passes.
+		 */
+		public boolean isSeparable() {
+			return intRow != null || floatRow != null;
+		}
+	}
+
+	/**
+	 * Convolves an image with a kernel.
+	 * @param image		the image (not modified)
+	 * @param k				the kernel
+	 * @param border	CLAMP, MIRROR, or WRAP
+	 * @return				the convolved image
+	 */
+	public static Raster apply(Raster image, Kernel k, int border) {
+		return apply(image, k, border, image.blankCopy());
+	}
+
+	/**
+	 * Convolves an image with a kernel, into a given raster.
+	 * @param image		the image (not modified)
+	 * @param k				the kernel
+	 * @param border	CLAMP, MIRROR, or WRAP
+	 * @param result	where to put the convolved image (the same size, but not the image itself)
+	 * @return				result
+	 */
+	public static Raster apply(final Raster image, final Kernel k, final int border, final Raster result) {
+		final int rows = image.rows, cols = image.cols, ch = image.channels, stride = image.stride;
+		final int ry = k.rows / 2, rx = k.cols / 2;
+		final Kernels kernels = Kernels.get();
+
+		if (k.intRow != null) {
+			// Across each row, into int sums, and then down the columns of those.
+			final int[] across = new int[rows * stride];
+			TileScheduler.forRows(image, new TileScheduler.Band() {
+				public void run(int from, int to) {
+					int[] padded = new int[(cols + 2 * rx) * ch];
+					for (int i = from; i < to; i++) {
+						pad(image, i, rx, border, padded);
+						accumulate(k.intRow, padded, ch, across, i * stride, stride);
+					}
+				}
+			});
+			TileScheduler.forRows(image, new TileScheduler.Band() {
+				public void run(int from, int to) {
+					int[] sums = new int[stride];
+					for (int i = from; i < to; i++) {
+						Arrays.fill(sums, 0);
+						for (int ki = 0; ki < k.rows; ki++) {
+							int w = k.intColumn[ki], p = border(i + ki - ry, rows, border) * stride;
+							if (w == 0) continue;
+							for (int q = 0; q < stride; q++) {
+								sums[q] += w * across[p + q];
+							}
+						}
+						finish(k, sums, kernels, result, i);
+					}
+				}
+			});
+		}
+		else if (k.floatRow != null) {
+			// The same, in floats.
+			final float[] across = new float[rows * stride];
+			TileScheduler.forRows(image, new TileScheduler.Band() {
+				public void run(int from, int to) {
+					int[] padded = new int[(cols + 2 * rx) * ch];
+					for (int i = from; i < to; i++) {
+						pad(image, i, rx, border, padded);
+						accumulate(k.floatRow, padded, ch, across, i * stride, stride);
+					}
+				}
+			});
+			TileScheduler.forRows(image, new TileScheduler.Band() {
+				public void run(int from, int to) {
+					float[] sums = new float[stride];
+					for (int i = from; i < to; i++) {
+						Arrays.fill(sums, 0);
+						for (int ki = 0; ki < k.rows; ki++) {
+							float w = k.floatColumn[ki];
+							int p = border(i + ki - ry, rows, border) * stride;
+							if (w == 0) continue;
+							for (int q = 0; q < stride; q++) {
+								sums[q] += w * across[p + q];
+							}
+						}
+						finish(k, sums, result, i);
+					}
+				}
+			});
+		}
+		else {
+			// Each kernel row across the corresponding image row, all added up.
+			TileScheduler.forRows(image, new TileScheduler.Band() {
+				public void run(int from, int to) {
+					int[] padded = new int[(cols + 2 * rx) * ch];
+					int[] intSums = k.ints != null ? new int[stride] : null;
+					float[] floatSums = k.ints == null ? new float[stride] : null;
+					int[] intRow = new int[k.cols];
+					float[] floatRow = new float[k.cols];
+					for (int i = from; i < to; i++) {
+						if (intSums != null) Arrays.fill(intSums, 0);
+						else Arrays.fill(floatSums, 0);
+						for (int ki = 0; ki < k.rows; ki++) {
+							pad(image, border(i + ki - ry, rows, border), rx, border, padded);
+							if (intSums != null) {
+								System.arraycopy(k.ints, ki * k.cols, intRow, 0, k.cols);
+								accumulate(intRow, padded, ch, intSums, 0, stride);
+							}
+							else {
+								System.arraycopy(k.floats, ki * k.cols, floatRow, 0, k.cols);
+								accumulate(floatRow, padded, ch, floatSums, 0, stride);
+							}
+						}
+						if (intSums != null) finish(k, intSums, kernels, result, i);
+						else finish(k, floatSums, result, i);
+					}
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Which pixel to use for position x along a line of n pixels, where x may be off either end.
+	 */
+	static int border(int x, int n, int mode) {
+		if (x >= 0 && x < n) return x;
+		if (mode == WRAP) return Math.floorMod(x, n);
+		if (mode == MIRROR) {
+			if (n == 1) return 0;
+			int period = 2 * n - 2;
+			x = Math.floorMod(x, period);
+			return x < n ? x : period - x;
+		}
+		return x < 0 ? 0 : n - 1;
+	}
+
+	/**
+	 * Copies row i of the image into padded, with rx pixels of border on each side.
+	 */
+	private static void pad(Raster image, int i, int rx, int border, int[] padded) {
+		int ch = image.channels, p = i * image.stride;
+		for (int j = -rx; j < image.cols + rx; j++) {
+			int s = p + border(j, image.cols, border) * ch, q = (j + rx) * ch;
+			for (int c = 0; c < ch; c++) {
+				padded[q + c] = image.data[s + c] & 0xff;
+			}
+		}
+	}
+
+	/**
+	 * Adds a row of weights, applied across a padded row, to n sums starting at sp.
+	 */
+	private static void accumulate(int[] w, int[] padded, int ch, int[] sums, int sp, int n) {
+		for (int kj = 0; kj < w.length; kj++) {
+			int wt = w[kj], off = kj * ch;
+			if (wt == 0) continue;
+			for (int q = 0; q < n; q++) {
+				sums[sp + q] += wt * padded[q + off];
+			}
+		}
+	}
+
+	/**
+	 * The same, in floats.
+	 */
+	private static void accumulate(float[] w, int[] padded, int ch, float[] sums, int sp, int n) {
+		for (int kj = 0; kj < w.length; kj++) {
+			float wt = w[kj];
+			int off = kj * ch;
+			if (wt == 0) continue;
+			for (int q = 0; q < n; q++) {
+				sums[sp + q] += wt * padded[q + off];
+			}
+		}
+	}
+
+	/**
+	 * Divides a row of int sums (rounding), adds the offset, and stores them as row i of the result, kept within 0-255.
+	 */
+	private static void finish(Kernel k, int[] sums, Kernels kernels, Raster result, int i) {
+		if (k.divisor != 1 || k.offset != 0) {
+			for (int q = 0; q < sums.length; q++) {
+				sums[q] = Math.floorDiv(sums[q] + k.divisor / 2, k.divisor) + k.offset;
+			}
+		}
+		kernels.clamp(sums, 0, result.data, result.index(i, 0), sums.length);
+	}
+
+	/**
+	 * The same, for float sums.
+	 */
+	private static void finish(Kernel k, float[] sums, Raster result, int i) {
+		int p = result.index(i, 0);
+		for (int q = 0; q < sums.length; q++) {
+			int v = (int) Math.floor(sums[q] / k.divisor + k.offset + 0.5f);
+			result.data[p + q] = (byte) (v < 0 ? 0 : v > 255 ? 255 : v);
+		}
+	}
+
+	/**
+	 * An n by n array of the same value.
+	 */
+	private static int[][] fill(int n, int v) {
+		int[][] w = new int[n][n];
+		for (int[] row : w) Arrays.fill(row, v);
+		return w;
+	}
+
+	/**
+	 * The array with its center replaced by v.
+	 */
+	private static int[][] center(int[][] w, int v) {
+		w[w.length / 2][w[0].length / 2] = v;
+		return w;
+	}
+
+	private static float[][] toFloats(int[][] w) {
+		float[][] f = new float[w.length][];
+		for (int i = 0; i < w.length; i++) {
+			f[i] = new float[w[i].length];
+			for (int j = 0; j < w[i].length; j++) f[i][j] = w[i][j];
+		}
+		return f;
+	}
+
+	private static int gcd(int a, int b) {
+		a = Math.abs(a);
+		b = Math.abs(b);
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+}
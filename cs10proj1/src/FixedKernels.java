@@ -0,0 +1,85 @@
+/**
+ * Integer versions of the point operation kernels, using 16.16 fixed point: a weight w (0-1) is held as the int
+ * w*65536, a product of a value and a weight is an int with 16 fraction bits, and shifting right by 16 truncates it
+ * just like storing a double into the image does. No doubles, no table lookups, and no divisions are left in the
+ * inner loops, which are plain int arithmetic on arrays that the JIT can turn into vector instructions on its own
+ * (without the incubating Vector API that VectorKernels, which does the same arithmetic, needs).
+ * The cost is exactness: since the weights are rounded to 1/65536, a result can come out 1 off from the double
+ * versions (e.g., 0.299*r + 0.587*g + 0.114*b landing just below an integer in one and just above in the other).
+ * So these are only used when asked for, with the kernels.fixed system property, or as VectorKernels, with kernels.vector
+ * (see Kernels.get).
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class FixedKernels extends Kernels {
+	public static final int ONE = 1 << 16;		// 1.0 in 16.16
+	private static final int R = 19595, G = 38470, B = 7471;	// 0.299, 0.587, 0.114 in 16.16 (adding up to exactly ONE)
+	private static final int maxDivisor = 256;	// beyond this, a reciprocal with 16 fraction bits could be more than 1 off
+
+	/**
+	 * A weight (or other number) in 16.16 fixed point, rounded to the nearest 1/65536.
+	 */
+	public static int fixed(double w) {
+		return (int) Math.round(w * ONE);
+	}
+
+	public boolean isFixed() {
+		return true;
+	}
+
+	public void blend(byte[] a, int ap, byte[] b, int bp, int n, double w) {
+		int wa = fixed(w), wb = ONE - wa;
+		for (int k = 0; k < n; k++) {
+			a[ap + k] = (byte) (((a[ap + k] & 0xff) * wa + (b[bp + k] & 0xff) * wb) >> 16);
+		}
+	}
+
+	public void blend(byte[] a, int ap, byte[] b, int bp, int n, double w, int mode, byte[] mask, int mp, int ch) {
+		if (mode == NORMAL && mask == null) {
+			blend(a, ap, b, bp, n, w);
+			return;
+		}
+		int w16 = fixed(w);
+		for (int k = 0; k < n; k++) {
+			int x = a[ap + k] & 0xff, y = b[bp + k] & 0xff;
+			// The mode's value, in 16.16 (v/255 is v*257 in 16.16, near enough, since 255*257 = 65535).
+			int mixed;
+			if (mode == MULTIPLY) mixed = x * y * 257;
+			else if (mode == SCREEN) mixed = (255 << 16) - (255 - x) * (255 - y) * 257;
+			else if (mode == OVERLAY) mixed = x < 128 ? 2 * x * y * 257 : (255 << 16) - 2 * (255 - x) * (255 - y) * 257;
+			else mixed = y << 16;
+			int wa = mask == null ? w16 : ONE - (int) ((long) (ONE - w16) * (mask[mp + k / ch] & 0xff) * 257 >> 16);
+			// The mode's value has 16 fraction bits and so does the weight, so the product needs a long.
+			a[ap + k] = (byte) ((((long) x << 16) * wa + (long) mixed * (ONE - wa)) >> 32);
+		}
+	}
+
+	public void scale(byte[] px, int from, int to, double s) {
+		int s16 = fixed(s);
+		for (int p = from; p < to; p++) {
+			px[p] = (byte) ((px[p] & 0xff) * s16 >> 16);
+		}
+	}
+
+	public void gray(byte[] px, int from, int to) {
+		for (int p = from; p < to; p += 3) {
+			byte gray = (byte) ((R * (px[p + 2] & 0xff) + G * (px[p + 1] & 0xff) + B * (px[p] & 0xff)) >> 16);
+			px[p] = px[p + 1] = px[p + 2] = gray;
+		}
+	}
+
+	/**
+	 * Divides by multiplying by the divisor's reciprocal, rounded up so that the truncated result is never too small
+	 * (and, for divisors up to 256, never more than 1 too big); bigger divisors are left to actual division.
+	 */
+	public void divide(int[] src, int sp, byte[] dst, int dp, int n, int divisor) {
+		if (divisor > maxDivisor) {
+			super.divide(src, sp, dst, dp, n, divisor);
+			return;
+		}
+		int recip = (ONE + divisor - 1) / divisor;
+		for (int k = 0; k < n; k++) {
+			dst[dp + k] = (byte) (src[sp + k] * recip >> 16);
+		}
+	}
+}
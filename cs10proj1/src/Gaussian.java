@@ -0,0 +1,157 @@
+/**
+ * Gaussian blur whose cost per pixel doesn't depend on sigma, using Young and van Vliet's recursive (IIR) approximation.
+ * Rather than weighting all the pixels within a few sigmas, each output is computed from the input and the
+ * previous three outputs, in one pass forward along a line and then one backward (which makes it symmetric):
+ *   forward:  w[n] = B*x[n] + (b1*w[n-1] + b2*w[n-2] + b3*w[n-3]) / b0
+ *   backward: y[n] = B*w[n] + (b1*y[n+1] + b2*y[n+2] + b3*y[n+3]) / b0
+ * with the coefficients worked out from sigma. A 2D Gaussian is a 1D one along the rows and then another down the columns.
+ * Past the ends of a line, the edge value is taken to repeat forever (so a flat image stays flat). At the start that just
+ * means starting the forward pass as if it had already been running on the edge value. At the end, the backward pass has
+ * to start from where it would be after coming back from infinity, which depends (linearly) on how far the last three
+ * forward values are from the edge value, by a 3x3 matrix (as in Triggs and Sdika) that's worked out once per blur.
+ * Both passes run on the TileScheduler: the row pass in bands of rows, and the column pass in strips of columns,
+ * each going down (and back up) the strip a row at a time, with the filter state for every column in the strip
+ * side by side, so it reads the image in order rather than jumping a whole row to get to the next value in a column.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class Gaussian {
+	private static final int stripValues = 256;		// setup: how many values across a strip of columns
+
+	/**
+	 * Blurs an image with a Gaussian.
+	 * @param image		image to blur (not modified)
+	 * @param sigma		the Gaussian's standard deviation, in pixels (at least 0.5; less than that leaves the image as is)
+	 * @return				blurred image
+	 */
+	public static Raster blur(Raster image, double sigma) {
+		return blur(image, sigma, image.blankCopy());
+	}
+
+	/**
+	 * Blurs an image as above, into a given raster.
+	 * @param image		image to blur (not modified)
+	 * @param sigma		the Gaussian's standard deviation, in pixels
+	 * @param result	where to put the blurred image (the same size, but not the image itself)
+	 * @return				result
+	 */
+	public static Raster blur(final Raster image, double sigma, final Raster result) {
+		if (sigma < 0.5) {
+			System.arraycopy(image.data, 0, result.data, 0, image.data.length);
+			return result;
+		}
+		// Young and van Vliet's coefficients
+		double q = sigma >= 2.5 ? 0.98711 * sigma - 0.96330 : 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+		double b0 = 1.57825 + 2.44413 * q + 1.4281 * q * q + 0.422205 * q * q * q;
+		final float a1 = (float) ((2.44413 * q + 2.85619 * q * q + 1.26661 * q * q * q) / b0);
+		final float a2 = (float) (-(1.4281 * q * q + 1.26661 * q * q * q) / b0);
+		final float a3 = (float) (0.422205 * q * q * q / b0);
+		final float B = 1 - (a1 + a2 + a3);
+		final float[][] m = boundary(a1, a2, a3, B, sigma);
+
+		final int rows = image.rows, cols = image.cols, nch = image.channels, stride = image.stride;
+		final byte[] px = image.data;
+		final float[] tmp = new float[px.length];	// after the row pass
+
+		// Row pass: forward and back along each row, for all its channels at once.
+		TileScheduler.forRows(image, new TileScheduler.Band() {
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					int base = i * stride;
+					for (int c = 0; c < nch; c++) {
+						int first = base + c, last = base + stride - nch + c;
+						float x0 = px[first] & 0xff, w1 = x0, w2 = x0, w3 = x0;
+						for (int p = first; p <= last; p += nch) {
+							float w = B * (px[p] & 0xff) + a1 * w1 + a2 * w2 + a3 * w3;
+							tmp[p] = w;
+							w3 = w2;
+							w2 = w1;
+							w1 = w;
+						}
+						float u = px[last] & 0xff, d1 = w1 - u, d2 = w2 - u, d3 = w3 - u;
+						float y1 = u + m[0][0] * d1 + m[0][1] * d2 + m[0][2] * d3;
+						float y2 = u + m[1][0] * d1 + m[1][1] * d2 + m[1][2] * d3;
+						float y3 = u + m[2][0] * d1 + m[2][1] * d2 + m[2][2] * d3;
+						for (int p = last; p >= first; p -= nch) {
+							float y = B * tmp[p] + a1 * y1 + a2 * y2 + a3 * y3;
+							tmp[p] = y;
+							y3 = y2;
+							y2 = y1;
+							y1 = y;
+						}
+					}
+				}
+			}
+		});
+
+		// Column pass: down and back up each strip of columns, a row of the strip at a time.
+		int strips = (stride + stripValues - 1) / stripValues;
+		TileScheduler.forRows(strips, rows * stripValues * 4, new TileScheduler.Band() {
+			public void run(int fromStrip, int toStrip) {
+				float[] w1 = new float[stripValues], w2 = new float[stripValues], w3 = new float[stripValues];
+				float[] u = new float[stripValues];		// the bottom row, as it was before the column pass
+				for (int s = fromStrip; s < toStrip; s++) {
+					int k0 = s * stripValues, n = Math.min(stride, k0 + stripValues) - k0;
+					for (int k = 0; k < n; k++) {
+						w1[k] = w2[k] = w3[k] = tmp[k0 + k];
+						u[k] = tmp[(rows - 1) * stride + k0 + k];
+					}
+					for (int i = 0; i < rows; i++) {
+						int p = i * stride + k0;
+						for (int k = 0; k < n; k++) {
+							float w = B * tmp[p + k] + a1 * w1[k] + a2 * w2[k] + a3 * w3[k];
+							tmp[p + k] = w;
+							w3[k] = w2[k];
+							w2[k] = w1[k];
+							w1[k] = w;
+						}
+					}
+					for (int k = 0; k < n; k++) {
+						float d1 = w1[k] - u[k], d2 = w2[k] - u[k], d3 = w3[k] - u[k];
+						w1[k] = u[k] + m[0][0] * d1 + m[0][1] * d2 + m[0][2] * d3;
+						w2[k] = u[k] + m[1][0] * d1 + m[1][1] * d2 + m[1][2] * d3;
+						w3[k] = u[k] + m[2][0] * d1 + m[2][1] * d2 + m[2][2] * d3;
+					}
+					for (int i = rows - 1; i >= 0; i--) {
+						int p = i * stride + k0;
+						for (int k = 0; k < n; k++) {
+							float y = B * tmp[p + k] + a1 * w1[k] + a2 * w2[k] + a3 * w3[k];
+							w3[k] = w2[k];
+							w2[k] = w1[k];
+							w1[k] = y;
+							// Round, and keep within 0-255 (the filter can overshoot a little).
+							int v = (int) (y + 0.5f);
+							result.data[p + k] = (byte) (v < 0 ? 0 : v > 255 ? 255 : v);
+						}
+					}
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * How the backward pass starts at the end of a line: row k of the matrix gives y[N+k] - u (for k = 0, 1, 2,
+	 * where N is the length of the line and u the edge value) from the last three forward values minus u, w[N-1-j] - u.
+	 * Since that's linear, it's found by running the filter past the end, forward and then back, from each of
+	 * the three unit starting states, for long enough that they've died away.
+	 */
+	private static float[][] boundary(double a1, double a2, double a3, double B, double sigma) {
+		int len = (int) (20 * sigma) + 50;
+		float[][] m = new float[3][3];
+		for (int j = 0; j < 3; j++) {
+			double[] w = new double[len + 3], y = new double[len + 3];
+			w[2 - j] = 1;		// w[0..2] are w[N-3..N-1]
+			for (int n = 3; n < len; n++) {
+				w[n] = a1 * w[n - 1] + a2 * w[n - 2] + a3 * w[n - 3];
+			}
+			for (int n = len - 1; n >= 3; n--) {
+				y[n] = B * w[n] + a1 * y[n + 1] + a2 * y[n + 2] + a3 * y[n + 3];
+			}
+			for (int k = 0; k < 3; k++) {
+				m[k][j] = (float) y[3 + k];
+			}
+		}
+		return m;
+	}
+}
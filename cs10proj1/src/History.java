@@ -0,0 +1,200 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Undo/redo history of an image, kept compactly by splitting each version into square tiles
+ * and storing only the tiles that changed from the previous version; unchanged tiles are shared.
+ * The history is bounded by the total bytes of tile data held (the history.bytes system property,
+ * 64MB by default); once over, the oldest versions are dropped.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class History {
+	private static final int tileSize = 64;		// setup: tile width and height, in pixels
+
+	private ArrayList<Version> versions;		// oldest first
+	private int current;										// index of the version being shown
+	private long bytes;											// total size of all the tiles held
+	private long maxBytes;									// limit on bytes
+
+	/**
+	 * One version of the image, as a grid of tiles (row-major), each holding its pixels row after row.
+	 */
+	private static class Version {
+		int rows, cols, channels;	// image dimensions
+		int trows, tcols;					// number of tiles down and across
+		byte[][] tiles;						// the tiles' pixel data, some shared with the previous version
+		boolean[] own;						// which tiles this version is responsible for (i.e., not shared with the previous)
+		long ownBytes;						// total size of the tiles this version is responsible for
+
+		/**
+		 * Splits a raster into tiles, reusing those of the previous version that are the same.
+		 * @param r			the image
+		 * @param prev	the previous version (or null)
+		 */
+		Version(Raster r, Version prev) {
+			rows = r.rows;
+			cols = r.cols;
+			channels = r.channels;
+			trows = (rows + tileSize - 1) / tileSize;
+			tcols = (cols + tileSize - 1) / tileSize;
+			tiles = new byte[trows * tcols][];
+			own = new boolean[tiles.length];
+			boolean sameShape = prev != null && prev.rows == rows && prev.cols == cols && prev.channels == channels;
+			for (int ti = 0; ti < trows; ti++) {
+				for (int tj = 0; tj < tcols; tj++) {
+					int t = ti * tcols + tj;
+					if (sameShape && matches(prev.tiles[t], r, ti, tj)) {
+						tiles[t] = prev.tiles[t];
+					}
+					else {
+						tiles[t] = cut(r, ti, tj);
+						own[t] = true;
+						ownBytes += tiles[t].length;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Number of bytes in each row of the tiles in tile column tj (narrower at the right edge).
+		 */
+		private int tileRowBytes(int tj) {
+			return (Math.min(cols, (tj + 1) * tileSize) - tj * tileSize) * channels;
+		}
+
+		/**
+		 * Copies tile (ti,tj) out of the raster.
+		 */
+		private byte[] cut(Raster r, int ti, int tj) {
+			int i0 = ti * tileSize, i1 = Math.min(rows, i0 + tileSize), w = tileRowBytes(tj);
+			byte[] tile = new byte[(i1 - i0) * w];
+			for (int i = i0; i < i1; i++) {
+				System.arraycopy(r.data, r.index(i, tj * tileSize), tile, (i - i0) * w, w);
+			}
+			return tile;
+		}
+
+		/**
+		 * Whether tile (ti,tj) of the raster holds the same pixels as the tile.
+		 */
+		private boolean matches(byte[] tile, Raster r, int ti, int tj) {
+			int i0 = ti * tileSize, i1 = Math.min(rows, i0 + tileSize), w = tileRowBytes(tj);
+			for (int i = i0; i < i1; i++) {
+				int p = r.index(i, tj * tileSize), q = (i - i0) * w;
+				if (!Arrays.equals(r.data, p, p + w, tile, q, q + w)) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Whether this version holds the same pixels as the raster.
+		 */
+		boolean matches(Raster r) {
+			if (r.rows != rows || r.cols != cols || r.channels != channels) return false;
+			for (int ti = 0; ti < trows; ti++) {
+				for (int tj = 0; tj < tcols; tj++) {
+					if (!matches(tiles[ti * tcols + tj], r, ti, tj)) return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Pastes the tiles back together into a raster.
+		 */
+		Raster toRaster() {
+			Raster r = new Raster(rows, cols, channels);
+			for (int ti = 0; ti < trows; ti++) {
+				for (int tj = 0; tj < tcols; tj++) {
+					byte[] tile = tiles[ti * tcols + tj];
+					int i0 = ti * tileSize, i1 = Math.min(rows, i0 + tileSize), w = tileRowBytes(tj);
+					for (int i = i0; i < i1; i++) {
+						System.arraycopy(tile, (i - i0) * w, r.data, r.index(i, tj * tileSize), w);
+					}
+				}
+			}
+			return r;
+		}
+	}
+
+	/**
+	 * Starts a history with the given image as its only version.
+	 * @param r		the image
+	 */
+	public History(Raster r) {
+		maxBytes = Long.getLong("history.bytes", 64L << 20);
+		versions = new ArrayList<Version>();
+		Version v = new Version(r, null);
+		versions.add(v);
+		bytes = v.ownBytes;
+		current = 0;
+	}
+
+	/**
+	 * Records the image as the newest version, unless it's the same as the current version.
+	 * Any versions that had been undone are discarded (they can no longer be redone).
+	 * @param r		the image
+	 * @return		whether a new version was recorded
+	 */
+	public boolean commit(Raster r) {
+		Version cur = versions.get(current);
+		if (cur.matches(r)) return false;
+		// Drop the redo versions; their own tiles are shared only among themselves.
+		while (versions.size() > current + 1) {
+			bytes -= versions.remove(versions.size() - 1).ownBytes;
+		}
+		Version v = new Version(r, cur);
+		versions.add(v);
+		bytes += v.ownBytes;
+		current++;
+		// Drop the oldest versions while over budget (but always keep the current one).
+		while (bytes > maxBytes && current > 0) {
+			dropOldest();
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the oldest version, handing the tiles it shares with the next one over to that one.
+	 */
+	private void dropOldest() {
+		Version old = versions.remove(0), next = versions.get(0);
+		current--;
+		for (int t = 0; t < next.tiles.length; t++) {
+			if (!next.own[t] && next.tiles[t] == old.tiles[t]) {
+				next.own[t] = true;
+				next.ownBytes += old.tiles[t].length;
+				old.ownBytes -= old.tiles[t].length;
+			}
+		}
+		bytes -= old.ownBytes;
+	}
+
+	/**
+	 * Steps back to the previous version.
+	 * @return		the previous version's image, or null if there isn't one
+	 */
+	public Raster undo() {
+		if (current == 0) return null;
+		current--;
+		return versions.get(current).toRaster();
+	}
+
+	/**
+	 * Steps forward to the version that was last undone.
+	 * @return		that version's image, or null if there isn't one
+	 */
+	public Raster redo() {
+		if (current == versions.size() - 1) return null;
+		current++;
+		return versions.get(current).toRaster();
+	}
+
+	/**
+	 * A summary of the history's size, for display.
+	 */
+	public String toString() {
+		return "version " + (current + 1) + " of " + versions.size() + ", " + (bytes >> 10) + "KB";
+	}
+}
@@ -0,0 +1,105 @@
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+import static com.googlecode.javacv.cpp.opencv_highgui.*;
+
+/**
+ * Decoded images, shared by everything in the program that loads them, so that an image file
+ * (e.g., img/baker.jpg, used all over) is only decoded once.
+ * An entry is used only if the file hasn't changed (same modification time and length) since it was decoded;
+ * otherwise the file is decoded again.
+ * Least recently used entries are dropped once the decoded pixels total more than the
+ * imagecache.bytes system property (128MB by default).
+ * Callers get their own copy of the pixels, which they can modify without affecting anyone else.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class ImageCache {
+	private static final long maxBytes = Long.getLong("imagecache.bytes", 128L << 20);
+	private static LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true);	// in access order
+	private static long bytes;					// total size of the cached images
+	private static int hits, misses;		// how many loads did and didn't find the image in the cache
+
+	/**
+	 * A decoded image, and the version of the file it came from.
+	 */
+	private static class Entry {
+		final CvMat image;
+		final long modified, length;
+
+		Entry(CvMat image, long modified, long length) {
+			this.image = image;
+			this.modified = modified;
+			this.length = length;
+		}
+
+		long bytes() {
+			return (long) image.rows() * image.step();
+		}
+	}
+
+	/**
+	 * Loads an image, like cvLoadImageM, but decoding it only if it's not already in the cache.
+	 * @param filename		the image file
+	 * @return						a copy of the image's pixels, or null if it couldn't be loaded
+	 */
+	public static CvMat load(String filename) {
+		File f = new File(filename);
+		String key = f.getAbsolutePath();
+		long modified = f.lastModified(), length = f.length();
+		synchronized (ImageCache.class) {
+			Entry e = cache.get(key);
+			if (e != null && e.modified == modified && e.length == length) {
+				hits++;
+				return e.image.clone();
+			}
+			misses++;
+		}
+		// Decode without holding the lock, so that other images can be loaded (or found) meanwhile.
+		CvMat image = cvLoadImageM(filename);
+		if (image == null) return null;
+		synchronized (ImageCache.class) {
+			Entry e = new Entry(image, modified, length), old = cache.put(key, e);
+			if (old != null) bytes -= old.bytes();
+			bytes += e.bytes();
+			// Drop the least recently used ones while over budget (but always keep the new one).
+			Iterator<Map.Entry<String, Entry>> it = cache.entrySet().iterator();
+			while (bytes > maxBytes && cache.size() > 1) {
+				bytes -= it.next().getValue().bytes();
+				it.remove();
+			}
+		}
+		return image.clone();
+	}
+
+	/**
+	 * How many loads found the image in the cache.
+	 */
+	public static synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * How many loads had to decode the image.
+	 */
+	public static synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Empties the cache (but keeps counting).
+	 */
+	public static synchronized void clear() {
+		cache.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * A summary of the cache's use, for display.
+	 */
+	public static synchronized String summary() {
+		return "image cache: " + hits + " hits, " + misses + " misses, " + cache.size() + " images, " + (bytes >> 10) + "KB";
+	}
+}
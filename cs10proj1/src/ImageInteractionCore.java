@@ -2,7 +2,6 @@ import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
 import com.googlecode.javacv.cpp.opencv_core.CvMat;
-import static com.googlecode.javacv.cpp.opencv_highgui.*;
 
 /**
  * Some interaction with images, built on JavaCV representations.
@@ -19,7 +18,7 @@ public class ImageInteractionCore extends JFrame {
 		super("Image Interaction");
 
 		// Read an image and make sure it was successfully loaded.
-		image = cvLoadImageM("img/baker.jpg");
+		image = ImageCache.load("img/baker.jpg");
 		if (image == null) {
 			System.out.println("image not found!");
 			System.exit(1);
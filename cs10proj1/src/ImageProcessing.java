@@ -2,6 +2,11 @@ import com.googlecode.javacv.CanvasFrame;
 import static com.googlecode.javacv.cpp.opencv_core.*;
 import static com.googlecode.javacv.cpp.opencv_highgui.*;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A basic class to load, display, and process an image, built on JavaCV
@@ -12,26 +17,58 @@ import java.util.*;
 public class ImageProcessing {
 	private CvMat image; 				// the image being processed, an instance of a JavaCV class
 	private CvMat original;			// the image as initially loaded
-	private CvMat mixin;				// another image (of the same dimensions), to be blended
+	private CvMat mixin;				// another image (of any size), to be blended
+	private int blendMode;			// how to blend (Kernels.NORMAL, MULTIPLY, SCREEN, or OVERLAY)
+	private CvMat mask;					// while blending through a mask, where to blend (white) and not (black); else null
+	private int border;					// how convolutions treat the edges (Convolution.CLAMP, MIRROR, or WRAP)
 	private CanvasFrame canvas; // a frame to display the image, an instance of a JavaCV class
+	private PointPipeline pending;	// in pipeline mode, point operations waiting to be run together; else null
+	private History history;				// earlier (and undone) versions of the image
+	private int firstRow;						// when the image is a strip of a bigger one (see Streaming), the row it starts at
+	private HashMap<String, Macro> macros = new HashMap<String, Macro>();	// by name
+	private long version;						// which version of the pixels the image is, for the ResultCache (0 if not using it, as when headless)
+	private long originalVersion;		// and which the original is
 
-	public ImageProcessing() {
-		// Read images, directly getting pixel matrices.
-		image = cvLoadImageM("img/baker.jpg");
-		mixin = cvLoadImageM("img/rain.jpg");
+	// Progressive mode: each command is run right away on a smaller copy of the image (the proxy), which is shown
+	// blown up to full size, and then on the image itself in the background, which is shown once it's done.
+	private static final int proxyScale = Integer.getInteger("progressive.scale", 4);	// setup: how many times smaller the proxy is
+	private static ExecutorService refiner;	// the background thread running commands on the full image
+	private boolean progressive;						// whether in progressive mode
+	private ImageProcessing proxy;					// the proxy, with the commands run so far (null until needed)
+	private int shownRows, shownCols;				// the full size, to show the proxy at
+	private ArrayList<String> unrefined = new ArrayList<String>();	// commands run on the proxy but not yet on the image
+	private ArrayList<Long> unrefinedSeeds = new ArrayList<Long>();	// and their random seeds
+	private AtomicBoolean refining;					// set to cancel the refinement in progress (null if none)
 
-		// Make sure they were successfully loaded.
-		if (image == null) {
-			System.out.println("original image not found!");
-			System.exit(1);
-		}
-		if (mixin == null) {
-			System.out.println("mixin image not found!");
-			System.exit(1);
-		}
-		
+	/**
+	 * Sets up to process the image headless (no window, no undo history), e.g., for Batch.
+	 * @param image		the image to process
+	 * @param mixin		the image to blend with
+	 */
+	public ImageProcessing(CvMat image, CvMat mixin) {
+		this.image = image;
+		this.mixin = mixin;
 		// Keep a copy of the original, so can revert.
 		original = image.clone();
+	}
+
+	/**
+	 * Sets up to process one strip of a bigger image, headless (see Streaming).
+	 * The random operations then do each row the same as they would in the whole image.
+	 * @param image			the strip
+	 * @param mixin			the image to blend with
+	 * @param firstRow	which row of the whole image the strip starts at
+	 */
+	public ImageProcessing(CvMat image, CvMat mixin, int firstRow) {
+		this(image, mixin);
+		this.firstRow = firstRow;
+	}
+
+	public ImageProcessing() {
+		// Read images, directly getting pixel matrices.
+		this(load("img/baker.jpg", "original"), load("img/rain.jpg", "mixin"));
+		history = new History(Raster.fromMat(image));
+		version = originalVersion = ResultCache.newVersion();
 		
 		// Create JavaCV image window. (1 indicates no gamma correction.)
 		canvas = new CanvasFrame("Image", 1);
@@ -40,65 +77,676 @@ public class ImageProcessing {
 		canvas.setDefaultCloseOperation(javax.swing.JFrame.EXIT_ON_CLOSE);
 	}
 
+	/**
+	 * Loads an image, making sure it was successfully loaded (and exiting if not, so only for the ones needed to start).
+	 * @param filename		where the image is
+	 * @param what				what it's for, to say if it's not there
+	 */
+	private static CvMat load(String filename, String what) {
+		CvMat image = ImageCache.load(filename);
+		if (image == null) {
+			System.out.println(what + " image not found!");
+			System.exit(1);
+		}
+		return image;
+	}
+
+	/**
+	 * The image being processed (with any pending point operations applied).
+	 */
+	public CvMat getImage() {
+		flush();
+		return image;
+	}
+
 	/**
 	 * Main loop: gets user input as to how to modify the image.
+	 * A line can have several commands (and macros) separated by spaces, e.g., "a3 d0.8 g h1", which are all run
+	 * before the image is shown (and remembered for undo) again.
 	 */
 	public void run() {
 		Scanner in = new Scanner(System.in);
 
 		while (true) {	// Loop forever
-			// Display image.
-			canvas.showImage(image.asIplImage());
-			// Get operation and dispatch to function to process it.
-			// Note that there are some magic numbers here that you can play with.
-			// (Having magic numbers buried like this is not generally good practice,
-			// but this is a hodge-podge of examples.)
+			// Remember this version (if it's changed), and display it (unless it's still being refined, and the preview is up).
+			synchronized (this) {
+				if (unrefined.isEmpty()) {
+					history.commit(Raster.fromMat(image));
+					canvas.showImage(image.asIplImage());
+				}
+			}
+			// Get operations and dispatch to functions to process them.
+			if (pending != null && pending.size() > 0) {
+				System.out.println("(" + pending.size() + " operations pending; empty line to apply)");
+			}
 			System.out.println("Operation >");
-			String op = in.nextLine();
-			if (op.isEmpty()) {
+			String line = in.nextLine().trim();
+			if (line.isEmpty()) {
+				// Timed like a command, since it's when pending operations actually run.
+				OpStats.Span span = OpStats.begin("apply", (long) image.rows() * image.cols());
+				boolean finished = false;
+				try {
+					flush();
+					finished = true;
+				}
+				finally {
+					if (finished) OpStats.end(span);
+					else OpStats.cancel(span);
+				}
+			}
+			else if (line.contains("=")) {
+				define(line);
+			}
+			else {
+				String[] ops = line.split("\\s+");
+				String unknown = null, tooBig = null;
+				for (String op : ops) {
+					if (unknown == null && !isCommand(op) && !macros.containsKey(op)) unknown = op;
+					if (tooBig == null && !fits(op)) tooBig = op;
+				}
+				// Run none of them, rather than leave the image partway through.
+				if (unknown != null) {
+					System.out.println("Unknown operation" + (ops.length > 1 ? " " + unknown : ""));
+				}
+				else if (tooBig != null) {
+					System.out.println(tooBig + " is too big for the image");
+				}
+				else {
+					runLine(ops);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Whether a command, or all of a macro's commands, can run on the current image (see fits).
+	 */
+	private boolean fits(String op) {
+		if (!macros.containsKey(op)) return fits(op, image.rows(), image.cols());
+		for (String[] stage : macros.get(op).stages()) {
+			for (String c : stage) {
+				if (!fits(c, image.rows(), image.cols())) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Runs a line's commands and macros, in order.
+	 * In progressive mode, consecutive ones that can be previewed are previewed together.
+	 */
+	private void runLine(String[] ops) {
+		ArrayList<String> previews = new ArrayList<String>();
+		for (String op : ops) {
+			if (progressive && !macros.containsKey(op) && control.indexOf(op.charAt(0)) < 0) {
+				previews.add(op);
 				continue;
 			}
-			else if (op.equals("a")) {
-				average(1);
+			if (!previews.isEmpty()) {
+				preview(previews);
+				previews.clear();
+			}
+			if (macros.containsKey(op)) {
+				settle();
+				runMacro(macros.get(op));
+			}
+			else {
+				// These need the image as it really is.
+				if (op.charAt(0) != 'i') settle();
+				dispatch(op);
 			}
-			else if (op.equals("b")) {
-				blend(0.7);
+		}
+		if (!previews.isEmpty()) preview(previews);
+	}
+
+	/**
+	 * Defines a macro, from a line like "warm = g d0.8 a3 k r10", which can then be run just by its name.
+	 */
+	private void define(String line) {
+		int eq = line.indexOf('=');
+		try {
+			Macro macro = new Macro(line.substring(0, eq).trim(), line.substring(eq + 1).trim().split("\\s+"));
+			macros.put(macro.name, macro);
+			System.out.println(macro);
+		}
+		catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+		}
+	}
+
+	private static final String control = "eijopqsuUw";	// the commands that aren't previewed in progressive mode
+
+	/**
+	 * In progressive mode, runs commands on the proxy and shows that, and starts running them
+	 * (along with any earlier ones not yet done) on the image in the background.
+	 * @param ops		the commands
+	 */
+	private synchronized void preview(ArrayList<String> ops) {
+		if (proxy == null) {
+			shownRows = image.rows();
+			shownCols = image.cols();
+			Raster small = Resample.bilinear(Raster.fromMat(image),
+					Math.max(1, image.rows() / proxyScale), Math.max(1, image.cols() / proxyScale));
+			proxy = headlessCopy(small.toMat());
+		}
+		for (String op : ops) {
+			long seed = RandomSource.nextSeed();
+			proxy.perform(proxyCommand(op, proxy.image.rows(), proxy.image.cols()), seed);
+			char letter = op.charAt(0);
+			if (letter == 'x' || letter == 't' && ((int) param(op, 90) % 180 + 180) % 180 == 90) {
+				// Turned on its side
+				int t = shownRows;
+				shownRows = shownCols;
+				shownCols = t;
 			}
-			else if (op.equals("d")) {
-				dim(0.9);
+			unrefined.add(op);
+			unrefinedSeeds.add(seed);
+		}
+		canvas.showImage(Resample.bilinear(Raster.fromMat(proxy.image), shownRows, shownCols).toMat().asIplImage());
+
+		// Start over on the image, with these commands too.
+		if (refining != null) refining.set(true);
+		refining = new AtomicBoolean();
+		refine(image.clone(), version, new ArrayList<String>(unrefined), new ArrayList<Long>(unrefinedSeeds), refining);
+	}
+
+	/**
+	 * The command to run on the proxy: the same, but with distances shrunk to match (and still fitting the proxy, of the given size).
+	 */
+	private static String proxyCommand(String op, int rows, int cols) {
+		char letter = op.charAt(0);
+		int size = Math.min(rows, cols);
+		if (letter == 'a' || letter == 'h' || letter == 'v' || letter == 'm') {
+			return letter + "" + Math.min(size, Math.max(1, Math.round(param(op, letter == 'm' ? 5 : 1) / proxyScale)));
+		}
+		if (letter == 'z') {
+			// Gaussian leaves the image as is below a sigma of 0.5, so don't shrink a blur that far (or one that's already that small).
+			double sigma = param(op, 2);
+			return letter + "" + Math.min(size, Math.max(Math.min(0.5, sigma), sigma / proxyScale));
+		}
+		return op;
+	}
+
+	/**
+	 * Runs commands on (a copy of) the image in the background, and then, unless cancelled, makes the result the current image.
+	 * @param base			the image, as of before the commands
+	 * @param baseVersion	its version (see ResultCache), so the commands can find results from earlier refinements
+	 * @param ops				the commands
+	 * @param seeds			their random seeds
+	 * @param cancelled	set to stop (partway through a command, if need be) and throw the result away
+	 */
+	private void refine(final CvMat base, final long baseVersion, final ArrayList<String> ops, final ArrayList<Long> seeds, final AtomicBoolean cancelled) {
+		synchronized (ImageProcessing.class) {
+			if (refiner == null) {
+				refiner = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "refiner");
+						t.setDaemon(true);
+						return t;
+					}
+				});
 			}
-			else if (op.equals("f")) {
-				flip();
+		}
+		refiner.execute(new Runnable() {
+			public void run() {
+				AtomicBoolean outer = TileScheduler.cancellable(cancelled);
+				try {
+					ImageProcessing worker = headlessCopy(base);
+					worker.version = baseVersion;
+					for (int k = 0; k < ops.size(); k++) {
+						if (cancelled.get()) return;
+						worker.dispatch(ops.get(k), seeds.get(k));
+					}
+					refined(worker.getImage(), worker.version, cancelled);
+				}
+				catch (CancellationException e) {
+					// A newer command came along, and the refinement including it has taken over.
+				}
+				finally {
+					TileScheduler.cancellable(outer);
+				}
 			}
-			else if (op.equals("g")) {
-				gray();
+		});
+	}
+
+	/**
+	 * Swaps in a refined image, if it's still wanted.
+	 */
+	private synchronized void refined(CvMat result, long resultVersion, AtomicBoolean cancelled) {
+		if (cancelled != refining || cancelled.get()) return;
+		image = result;
+		version = resultVersion;
+		unrefined.clear();
+		unrefinedSeeds.clear();
+		refining = null;
+		proxy = null;		// start the next one afresh from the real thing
+		history.commit(Raster.fromMat(image));
+		canvas.showImage(image.asIplImage());
+	}
+
+	/**
+	 * In progressive mode, makes sure the commands have all been run on the image (doing any still unrefined ones right here).
+	 */
+	private void settle() {
+		ArrayList<String> ops;
+		ArrayList<Long> seeds;
+		synchronized (this) {
+			if (unrefined.isEmpty()) return;
+			refining.set(true);
+			refining = null;
+			ops = new ArrayList<String>(unrefined);
+			seeds = new ArrayList<Long>(unrefinedSeeds);
+			unrefined.clear();
+			unrefinedSeeds.clear();
+			proxy = null;
+		}
+		for (int k = 0; k < ops.size(); k++) {
+			dispatch(ops.get(k), seeds.get(k));
+		}
+	}
+
+	/**
+	 * A headless ImageProcessing for another image, blending the same way as this one.
+	 */
+	private ImageProcessing headlessCopy(CvMat image) {
+		ImageProcessing copy = new ImageProcessing(image, mixin);
+		copy.blendMode = blendMode;
+		copy.mask = mask;
+		copy.border = border;
+		return copy;
+	}
+
+	/**
+	 * Whether the string is a command: one of the operation letters, optionally followed by a number
+	 * (e.g., "a" or "a3" or "d0.8"). The number has to be finite, and for a radius or sigma, 0 to maxRadius.
+	 * (Whether a radius fits a particular image is up to fits.)
+	 */
+	public static boolean isCommand(String op) {
+		if (op.isEmpty() || commands.indexOf(op.charAt(0)) < 0) return false;
+		if (op.length() == 1) return true;
+		double v;
+		try {
+			v = Double.parseDouble(op.substring(1));
+		}
+		catch (NumberFormatException e) {
+			return false;
+		}
+		if (Double.isNaN(v) || Double.isInfinite(v)) return false;
+		if (radii.indexOf(op.charAt(0)) >= 0) return v >= 0 && v <= maxRadius;
+		return true;
+	}
+
+	/**
+	 * Whether a command can run on an image of the given size: its radius (or sigma), if any, can't be bigger than the image.
+	 * @param op		the command (see isCommand)
+	 */
+	public static boolean fits(String op, int rows, int cols) {
+		char letter = op.charAt(0);
+		if (radii.indexOf(letter) < 0) return true;
+		return param(op, letter == 'm' ? 5 : letter == 'z' ? 2 : 1) <= Math.min(rows, cols);
+	}
+
+	private static final String commands = "abcdefghijklmnopqrstuUvwxyzDE";	// the operation letters
+	private static final String radii = "ahmvz";		// the commands whose number is a radius (or, for z, a sigma)
+	private static final int maxRadius = 32767;			// setup: the largest (so that Median's box widths fit its char counts, and nothing overflows)
+
+	/**
+	 * The number in a command, or the given default if there isn't one.
+	 */
+	private static double param(String op, double dflt) {
+		return op.length() > 1 ? Double.parseDouble(op.substring(1)) : dflt;
+	}
+
+	/**
+	 * How many rows above and below a pixel a command looks at to compute the pixel's new values.
+	 * @param op		the command (see isCommand)
+	 */
+	public static int reach(String op) {
+		char letter = op.charAt(0);
+		if (letter == 'a' || letter == 'h' || letter == 'v') return (int) param(op, 1);
+		if (letter == 'D' || letter == 'E') return 1;
+		if (letter == 'm') return (int) param(op, 5);
+		// A Gaussian reaches forever, but by 4 sigmas there's nothing left that shows in 8 bits.
+		if (letter == 'z') return (int) Math.ceil(4 * param(op, 2));
+		return 0;
+	}
+
+	/**
+	 * Performs a command (see isCommand) on the current image, with a new seed for the random operations.
+	 * @param op		the command
+	 */
+	public void dispatch(String op) {
+		dispatch(op, RandomSource.nextSeed());
+	}
+
+	/**
+	 * Performs a command (see isCommand) on the current image.
+	 * The number, if any, replaces the operation's default parameter (e.g., blur radius, dim factor).
+	 * Note that there are some magic numbers here (the defaults) that you can play with.
+	 * (Having magic numbers buried like this is not generally good practice,
+	 * but this is a hodge-podge of examples.)
+	 * Each command is timed (see OpStats), except "i", which shows the timings.
+	 * Unless headless, the results of the commands that aren't random are kept in the ResultCache, and found there when
+	 * the same command is done again on the same version of the image (e.g., after reverting to the original).
+	 * @param op		the command
+	 * @param seed	random seed (see RandomSource) for noise, scramble, and the custom filter
+	 */
+	public void dispatch(String op, long seed) {
+		if (op.charAt(0) == 'i') {
+			System.out.print(OpStats.summary());
+			System.out.println(ImageCache.summary());
+			System.out.println(ResultCache.summary());
+			return;
+		}
+		OpStats.Span span = OpStats.begin(op.substring(0, 1), (long) image.rows() * image.cols());
+		boolean finished = false;	// only finished runs count (not ones cut short, e.g., by a cancelled refinement)
+		try {
+			if (version != 0 && pending == null && repeatable.indexOf(op.charAt(0)) >= 0) {
+				String key = resultKey(op);
+				Raster cached = ResultCache.get(version, key);
+				if (cached != null) {
+					replace(cached);
+				}
+				else {
+					perform(op, seed);
+					ResultCache.put(version, key, Raster.fromMat(image));
+				}
+				version = ResultCache.version(version, key);
 			}
-			else if (op.equals("h")) {
-				sharpen(1);
+			else {
+				perform(op, seed);
+				if (version != 0 && unchanging.indexOf(op.charAt(0)) < 0) {
+					version = op.charAt(0) == 'o' ? originalVersion : ResultCache.newVersion();
+				}
 			}
-			else if (op.equals("m")) {
-				scramble(5);
+			finished = true;
+		}
+		finally {
+			if (finished) OpStats.end(span);
+			else OpStats.cancel(span);
+		}
+	}
+
+	private static final String repeatable = "abdfghklrtvxyzDE";	// the commands that always do the same thing to the same image
+	private static final String unchanging = "eijqsw";					// those that leave the image as is
+
+	/**
+	 * How a repeatable command is identified in the ResultCache: by itself, along with the settings it depends on.
+	 */
+	private String resultKey(String op) {
+		char letter = op.charAt(0);
+		if (letter == 'b') return op + " e" + blendMode + (mask != null ? " q" : "");
+		if (letter == 'h' || letter == 'D' || letter == 'E') return op + " j" + border;
+		return op;
+	}
+
+	/**
+	 * Performs a command, as above (without timing it).
+	 */
+	private void perform(String op, long seed) {
+		char letter = op.charAt(0);
+		if (points.indexOf(letter) >= 0) {
+			// Run it on its own, or in pipeline mode, hold on to it to run in the same pass as the ones before and after it.
+			PointPipeline pipeline = pending != null ? pending : new PointPipeline();
+			addPoint(pipeline, op, seed, image.rows(), image.cols());
+			if (pending == null) {
+				runPipeline(pipeline);
 			}
-			else if (op.equals("n")) {
-				noise(20);
+		}
+		else if (neighborhoods.indexOf(letter) >= 0) {
+			flush();
+			image = neighborhood(op, seed, Raster.fromMat(image), null).toMat();
+		}
+		else if (letter == 'e') {
+			// Set the blend mode.
+			blendMode = (int) param(op, Kernels.NORMAL);
+			if (blendMode < 0 || blendMode >= Kernels.modeNames.length) blendMode = Kernels.NORMAL;
+			System.out.println("blend mode " + Kernels.modeNames[blendMode]);
+		}
+		else if (letter == 'f') {
+			flip();
+		}
+		else if (letter == 'j') {
+			// Set the border mode.
+			border = (int) param(op, Convolution.CLAMP);
+			if (border < 0 || border >= Convolution.borderNames.length) border = Convolution.CLAMP;
+			System.out.println("border mode " + Convolution.borderNames[border]);
+		}
+		else if (letter == 'l') {
+			mirror();
+		}
+		else if (letter == 'o') {
+			// Anything pending was to be applied to the image being thrown away.
+			if (pending != null) pending = new PointPipeline();
+			image = original.clone();
+		}
+		else if (letter == 'p') {
+			// Toggle pipeline mode.
+			if (progressive) {
+				System.out.println("no pipeline mode in progressive mode");
 			}
-			else if (op.equals("o")) {
-				image = original.clone();
+			else if (pending == null) {
+				pending = new PointPipeline();
+				System.out.println("pipeline mode on");
 			}
-			else if (op.equals("s")) {
-				cvSaveImage("img/snapshot.jpg", image.asIplImage());
+			else {
+				flush();
+				pending = null;
+				System.out.println("pipeline mode off");
 			}
-			//*********MY CUSTOM FILTER FOR SA1*********
-			else if(op.equals("c"))
-			{
-				customFilter();
+		}
+		else if (letter == 'q') {
+			// Toggle blending through a mask (the smiley's luminosity).
+			if (mask == null) {
+				// Not load, which exits: that's only for the images there's no going on without.
+				CvMat smiley = ImageCache.load("img/smiley.png");
+				if (smiley == null) {
+					System.out.println("mask image not found; mask stays off");
+				}
+				else {
+					mask = luminosity(smiley);
+					System.out.println("mask on");
+				}
 			}
 			else {
-				System.out.println("Unknown operation");
+				mask = null;
+				System.out.println("mask off");
 			}
 		}
+		else if (letter == 's') {
+			flush();
+			cvSaveImage("img/snapshot.jpg", image.asIplImage());
+		}
+		else if (letter == 't') {
+			rotate((int) param(op, 90));
+		}
+		else if (letter == 'u') {
+			undo();
+		}
+		else if (letter == 'U') {
+			redo();
+		}
+		else if (letter == 'w') {
+			// Toggle progressive mode (which does without pipeline mode, since point operations are quick anyway).
+			if (!progressive) {
+				if (pending != null) {
+					flush();
+					pending = null;
+					System.out.println("pipeline mode off");
+				}
+				progressive = true;
+				System.out.println("progressive mode on");
+			}
+			else {
+				settle();
+				progressive = false;
+				System.out.println("progressive mode off");
+			}
+		}
+		else if (letter == 'x') {
+			transpose();
+		}
 	}
 	
+	private static final String points = "bcdgknry";				// the commands that change each pixel based only on its own values
+	private static final String neighborhoods = "ahmvzDE";	// the commands that look at the pixels around it too
+
+	/**
+	 * Whether a command is a point command, which can run in the same pass as others (see PointPipeline).
+	 */
+	public static boolean isPoint(String op) {
+		return points.indexOf(op.charAt(0)) >= 0;
+	}
+
+	/**
+	 * Runs a macro's commands (see Macro) on the current image, each with a new seed for the random operations.
+	 * It's timed as a whole, under the macro's name.
+	 */
+	public void runMacro(Macro macro) {
+		flush();
+		OpStats.Span span = OpStats.begin(macro.name, (long) image.rows() * image.cols());
+		boolean finished = false;
+		try {
+			Raster r = macro.load(image);
+			for (String[] stage : macro.stages()) {
+				r = runStage(macro, stage, r);
+			}
+			replace(r);
+			if (version != 0) version = ResultCache.newVersion();
+			finished = true;
+		}
+		finally {
+			if (finished) OpStats.end(span);
+			else OpStats.cancel(span);
+		}
+	}
+
+	/**
+	 * Runs one stage of a macro.
+	 * @param macro		the macro, for its buffers
+	 * @param stage		a run of point commands, or a single other command
+	 * @param r				the image so far
+	 * @return				the image after the stage (r itself, or another of the macro's buffers)
+	 */
+	private Raster runStage(Macro macro, String[] stage, Raster r) {
+		String op = stage[0];
+		char letter = op.charAt(0);
+		if (isPoint(op)) {
+			PointPipeline pipeline = new PointPipeline();
+			for (String p : stage) {
+				addPoint(pipeline, p, RandomSource.nextSeed(), r.rows, r.cols);
+			}
+			pipeline.run(r);
+			return r;
+		}
+		// Every command takes a seed, used or not, so that the random ones get the same as from dispatch.
+		long seed = RandomSource.nextSeed();
+		if (neighborhoods.indexOf(letter) >= 0) {
+			return neighborhood(op, seed, r, macro.into(r));
+		}
+		if (letter == 'f') {
+			Transforms.flip(r);
+			return r;
+		}
+		if (letter == 'l') {
+			Transforms.mirror(r);
+			return r;
+		}
+		if (letter == 't') {
+			return turn(r, (int) param(op, 90));
+		}
+		if (letter == 'x') {
+			return Transforms.transpose(r);
+		}
+		if (letter == 'o') {
+			return macro.load(original);
+		}
+		if (letter == 's') {
+			cvSaveImage("img/snapshot.jpg", r.toMat().asIplImage());
+			return r;
+		}
+		// The rest just change settings (blend mode, border mode, mask).
+		perform(op, seed);
+		return r;
+	}
+
+	/**
+	 * Rotates a raster clockwise, in place if it keeps its shape.
+	 * @param degrees		how much (a multiple of 90)
+	 * @return					the rotated raster (r itself, unless it's turned on its side and isn't square)
+	 */
+	private static Raster turn(Raster r, int degrees) {
+		degrees = (degrees % 360 + 360) % 360;
+		if (degrees == 180) {
+			Transforms.flip(r);
+			Transforms.mirror(r);
+			return r;
+		}
+		if (degrees == 90) return Transforms.rotate90(r);
+		if (degrees == 270) return Transforms.rotate270(r);
+		if (degrees != 0) System.out.println("can only rotate by multiples of 90 degrees");
+		return r;
+	}
+
+	/**
+	 * Adds a point command (one of points) to the end of a pipeline.
+	 * @param pipeline	the pipeline
+	 * @param op				the command
+	 * @param seed			random seed (see RandomSource), for noise and the custom filter
+	 * @param rows			the size of the image it's to run on (for fitting the mixin)
+	 * @param cols
+	 */
+	private void addPoint(PointPipeline pipeline, String op, long seed, int rows, int cols) {
+		char letter = op.charAt(0);
+		if (letter == 'b') {
+			pipeline.addRow(blend(param(op, 0.7), rows, cols));
+		}
+		else if (letter == 'c') {
+			pipeline.addRow(custom(seed));
+		}
+		else if (letter == 'd') {
+			pipeline.addRow(dim(param(op, 0.9)));
+		}
+		else if (letter == 'g') {
+			pipeline.addRow(gray());
+		}
+		else if (letter == 'k') {
+			pipeline.add(Lut.contrast(param(op, 1.2)));
+		}
+		else if (letter == 'n') {
+			pipeline.addRow(noise(param(op, 20), seed));
+		}
+		else if (letter == 'r') {
+			pipeline.add(Lut.brightness(param(op, 20)));
+		}
+		else if (letter == 'y') {
+			pipeline.add(Lut.gamma(param(op, 0.8)));
+		}
+	}
+
+	/**
+	 * Runs a neighborhood command (one of neighborhoods) on an image.
+	 * @param op			the command
+	 * @param seed		random seed (see RandomSource), for scramble
+	 * @param r				the image (not modified)
+	 * @param into		where to put the result (the same size as r, but not r itself), or null for a new raster
+	 * @return				the result
+	 * @throws IllegalArgumentException		if the command's radius is too big for the image (see fits)
+	 */
+	private Raster neighborhood(String op, long seed, Raster r, Raster into) {
+		if (!fits(op, r.rows, r.cols)) {
+			throw new IllegalArgumentException(op + " is too big for a " + r.cols + "x" + r.rows + " image");
+		}
+		if (into == null) into = r.blankCopy();
+		char letter = op.charAt(0);
+		if (letter == 'a') return average(r, (int) param(op, 1), into);
+		if (letter == 'h') return sharpen(r, (int) param(op, 1), into);
+		if (letter == 'm') return scramble(r, (int) param(op, 5), seed, into);
+		if (letter == 'v') return median(r, (int) param(op, 1), into);
+		if (letter == 'z') return gaussian(r, param(op, 2), into);
+		return convolve(r, letter == 'D' ? Convolution.edge : Convolution.emboss, into);
+	}
+
 	//*********MY CUSTOM FILTER FOR SA1*********
 	/**
 	 * Adds some noise and a green tint to the picture.
@@ -106,149 +754,271 @@ public class ImageProcessing {
 	 */
 	public void customFilter()
 	{
-		//for every row of the image
-		for (int i = 0; i < image.rows(); i++) 
-		{
-			//for every column of the image
-			for (int j = 0; j < image.cols(); j++) 
+		customFilter(RandomSource.nextSeed());
+	}
+
+	/**
+	 * Adds some noise and a green tint to the picture, with the noise determined by the seed.
+	 * @param seed		random seed (see RandomSource)
+	 */
+	public void customFilter(long seed)
+	{
+		apply(custom(seed));
+	}
+
+	/**
+	 * The custom filter's operation.
+	 * @param seed		random seed (see RandomSource)
+	 */
+	private PointPipeline.RowOp custom(final long seed)
+	{
+		return new PointPipeline.RowOp() {
+			public void applyRow(byte[] px, int from, int to, int i)
 			{
-				//for every of the 3 color channels of the imge (BGR)
-				for (int c = 0; c < 3; c++) 
+				// This row's own random numbers
+				SplittableRandom random = RandomSource.forRow(seed, firstRow + i);
+				//for every pixel in the row
+				for (int p = from; p < to; p += 3)
 				{
-					//for every color channel, multiply it by 
-					//a factor between 0 and 1, this adds some
-					//noise to the image, but ensures the objects
-					//within the image are still visible
-					image.put(i,j,c,image.get(i,j,c)*Math.random());
-					//if the color channel is green, the green
-					//of that pixel is accentuated by a factor of 1.5
-					if(c == 1)
+					//for every of the 3 color channels of the imge (BGR)
+					for (int c = 0; c < 3; c++) 
 					{
-						image.put(i,j,c,image.get(i,j,c)*1.5);
+						//for every color channel, multiply it by 
+						//a factor between 0 and 1, this adds some
+						//noise to the image, but ensures the objects
+						//within the image are still visible
+						int v = (int) ((px[p + c] & 0xff) * random.nextDouble());
+						//if the color channel is green, the green
+						//of that pixel is accentuated by a factor of 1.5
+						if(c == 1)
+						{
+							v = (int) (v * 1.5);
+						}
+						px[p + c] = (byte) v;
 					}
 				}
 			}
+		};
+	}
+
+	/**
+	 * Runs a row-at-a-time point operation on the current image; or, in pipeline mode, holds on to it
+	 * so it can be run in the same pass as the ones before and after it.
+	 * @param op		the operation
+	 */
+	private void apply(PointPipeline.RowOp op) {
+		PointPipeline pipeline = pending != null ? pending : new PointPipeline();
+		pipeline.addRow(op);
+		if (pending == null) {
+			runPipeline(pipeline);
 		}
 	}
 
 	/**
-	 * Blurs the current image by setting each pixel's values to the average of those in a radius-sized box around it.
-	 * Use a smallish box (e.g., 1) unless the image is small or you're willing to wait a while.
-	 * @param radius		size of box; e.g., 1 indicates +-1 around the pixel
+	 * In pipeline mode, runs the pending point operations, so that the image is up to date.
+	 * Operations that look at other pixels call this first, as do saving and switching modes.
 	 */
-	private void average(int radius) {
-		// Create a new image into which the resulting pixels will be stored.
-		CvMat result = CvMat.create(image.rows(), image.cols(), image.type());
-		// Loop over rows (i), columns (j), and colors (c).
-		for (int i = 0; i < image.rows(); i++) {
-			for (int j = 0; j < image.cols(); j++) {
-				for (int c = 0; c < 3; c++) {
-					double sum = 0;
-					int n = 0;
-					// Loop over neighbor rows (ni) and columns (nj)
-					// but be careful not to go outside image (max, min stuff).
-					for (int ni = Math.max(0, i - radius); 
-							 ni < Math.min(image.rows(), i + 1 + radius); 
-							 ni++) 
-					{
-						for (int nj = Math.max(0, j - radius); 
-								 nj < Math.min(image.cols(), j + 1 + radius);
-								 nj++) 
-						{
-							sum += image.get(ni, nj, c);
-							n++;
-						}
-					}
-					result.put(i, j, c, sum / n);
-				}
-			}
+	private void flush() {
+		if (pending != null && pending.size() > 0) {
+			runPipeline(pending);
+			pending = new PointPipeline();
+			if (version != 0) version = ResultCache.newVersion();
 		}
-		// Make the current image be this new image.
-		image = result;
 	}
 
 	/**
-	 * Blends the current image with the mixin
-	 * @param w		weight on current image (0-1), with 1-w on the mixin
+	 * Goes back to the previous version of the image.
 	 */
-	private void blend(double w) {
-		// Create a new image into which the resulting pixels will be stored.
-		CvMat result = CvMat.create(image.rows(), image.cols(), image.type());
-		// Loop over rows (i), columns (j), and colors (c).
-		for (int i = 0; i < image.rows(); i++) {
-			for (int j = 0; j < image.cols(); j++) {
-				for (int c = 0; c < 3; c++) {
-					double blended = image.get(i, j, c) * w + mixin.get(i, j, c) * (1 - w);
-					result.put(i, j, c, blended);
-				}
+	private void undo() {
+		// Make sure the version being left is in the history, so it can be redone.
+		flush();
+		if (history == null) return;	// headless
+		history.commit(Raster.fromMat(image));
+		Raster r = history.undo();
+		if (r == null) {
+			System.out.println("nothing to undo");
+		}
+		else {
+			image = r.toMat();
+			System.out.println(history);
+		}
+	}
+
+	/**
+	 * Goes forward to the last undone version of the image.
+	 */
+	private void redo() {
+		flush();
+		if (history == null) return;	// headless
+		Raster r = history.redo();
+		if (r == null) {
+			System.out.println("nothing to redo");
+		}
+		else {
+			image = r.toMat();
+			System.out.println(history);
+		}
+	}
+
+	/**
+	 * Runs a pipeline over the current image, in place.
+	 */
+	private void runPipeline(PointPipeline pipeline) {
+		Raster r = Raster.fromMat(image);
+		pipeline.run(r);
+		r.toMat(image);
+	}
+
+	/**
+	 * Blurs an image by setting each pixel's values to the average of those in a radius-sized box around it.
+	 * Uses running sums (see BoxBlur), so larger boxes cost no more than small ones.
+	 * @param r					the image
+	 * @param radius		size of box; e.g., 1 indicates +-1 around the pixel
+	 * @param into			where to put the blurred image
+	 */
+	private static Raster average(Raster r, int radius, Raster into) {
+		return BoxBlur.blur(r, radius, into);
+	}
+
+	/**
+	 * Blurs an image with a Gaussian, which (unlike averaging) doesn't leave boxy artifacts.
+	 * Uses a recursive filter (see Gaussian), so larger blurs cost no more than small ones.
+	 * @param r					the image
+	 * @param sigma			the Gaussian's standard deviation, in pixels
+	 * @param into			where to put the blurred image
+	 */
+	private static Raster gaussian(Raster r, double sigma, Raster into) {
+		return Gaussian.blur(r, sigma, into);
+	}
+
+	/**
+	 * Removes speckles (e.g., from noise) by setting each pixel's values to the median of those in a radius-sized box around it.
+	 * Unlike averaging, this keeps edges sharp. Uses sliding histograms (see Median), so larger boxes cost no more than small ones.
+	 * @param r					the image
+	 * @param radius		size of box; e.g., 1 indicates +-1 around the pixel
+	 * @param into			where to put the filtered image
+	 */
+	private static Raster median(Raster r, int radius, Raster into) {
+		return Median.filter(r, radius, into);
+	}
+
+	/**
+	 * The operation that blends an image with the mixin, in the current blend mode (and through the mask, if any).
+	 * The mixin (and mask) are resized to match the image, if necessary (see Resample).
+	 * @param w			weight on the image (0-1), with 1-w on the mixin
+	 * @param rows	the image's size
+	 * @param cols
+	 */
+	private PointPipeline.RowOp blend(final double w, int rows, int cols) {
+		final Raster m = Resample.cached(mixin, rows, cols);
+		final Raster alpha = mask != null ? Resample.cached(mask, rows, cols) : null;
+		final int mode = blendMode;
+		final Kernels k = Kernels.get();
+		return new PointPipeline.RowOp() {
+			public void applyRow(byte[] px, int from, int to, int i) {
+				k.blend(px, from, m.data, m.index(i, 0), to - from, w, mode,
+						alpha != null ? alpha.data : null, alpha != null ? alpha.index(i, 0) : 0, m.channels);
 			}
+		};
+	}
+
+	/**
+	 * A one-channel image of another's luminosity (see Kernels.gray).
+	 */
+	private static CvMat luminosity(CvMat mat) {
+		Raster r = Raster.fromMat(mat), g = new Raster(r.rows, r.cols, 1);
+		double[][] lum = Lut.luminosity();
+		for (int p = 0, q = 0; q < g.data.length; p += r.channels, q++) {
+			g.data[q] = Raster.toByte(lum[2][r.data[p + 2] & 0xff] + lum[1][r.data[p + 1] & 0xff] + lum[0][r.data[p] & 0xff]);
 		}
-		// Make the current image be this new image.
-		image = result;
+		return g.toMat();
 	}
 
 	/**
-	 * Dims the current image by scaling it by the specified amount.
+	 * The operation that dims an image by scaling it by the specified amount.
 	 * @param scale		how much to scale the pixel values (0-1)
 	 */
-	private void dim(double scale) {
-		// Loop over rows (i), columns (j), and colors (c).
-		for (int i = 0; i < image.rows(); i++) {
-			for (int j = 0; j < image.cols(); j++) {
-				for (int c = 0; c < 3; c++) {
-					double scaled = image.get(i, j, c) * scale;
-					image.put(i, j, c, scaled);
-				}
+	private static PointPipeline.RowOp dim(final double scale) {
+		// The kernels look up the scaled values in a table, or do whole vectors of them at once.
+		final Kernels k = Kernels.get();
+		return new PointPipeline.RowOp() {
+			public void applyRow(byte[] px, int from, int to, int i) {
+				k.scale(px, from, to, scale);
 			}
-		}
+		};
 	}
 
 	/**
-	 * Flips the current image upside down.
+	 * Flips the current image upside down, in place (swapping whole rows; see Transforms).
 	 */
 	private void flip() {
-		// Create a new image into which the resulting pixels will be stored.
-		CvMat result = CvMat.create(image.rows(), image.cols(), image.type());
-		// Loop over rows (i), columns (j), and colors (c).
-		for (int i = 0; i < image.rows(); i++) {
-			for (int j = 0; j < image.cols(); j++) {
-				for (int c = 0; c < 3; c++) {
-					int i2 = image.rows() - 1 - i; // note that last row index is rows-1
-					result.put(i2, j, c, image.get(i, j, c));
-				}
-			}
+		flush();
+		Transforms.flip(image);
+	}
+
+	/**
+	 * Mirrors the current image left to right, in place.
+	 */
+	private void mirror() {
+		flush();
+		Transforms.mirror(image);
+	}
+
+	/**
+	 * Rotates the current image clockwise.
+	 * @param degrees		how much (a multiple of 90)
+	 */
+	private void rotate(int degrees) {
+		flush();
+		degrees = (degrees % 360 + 360) % 360;
+		if (degrees == 180) {
+			Transforms.rotate180(image);
+		}
+		else if (degrees == 90 || degrees == 270) {
+			Raster r = Raster.fromMat(image);
+			Raster result = degrees == 90 ? Transforms.rotate90(r) : Transforms.rotate270(r);
+			replace(result);
+		}
+		else if (degrees != 0) {
+			System.out.println("can only rotate by multiples of 90 degrees");
 		}
-		// Make the current image be this new image.
-		image = result;
 	}
 
 	/**
-	 * Computes the luminosity of an rgb value by one standard formula.
-	 * @param r		red value (0-255)
-	 * @param g		green value (0-255)
-	 * @param b		blue value (0-255)
-	 * @return		luminosity (0-255)
+	 * Transposes the current image (swapping rows and columns).
 	 */
-	private static double luminosity(double r, double g, double b) {
-		return 0.299 * r + 0.587 * g + 0.114 * b;
+	private void transpose() {
+		flush();
+		Raster r = Raster.fromMat(image);
+		replace(Transforms.transpose(r));
 	}
 
 	/**
-	 * Makes the current image look grayscale (though still represented as BGR).
+	 * Makes the current image be the result of a transform (or other command), reusing the current one if it's the same shape.
+	 * @param result	the new pixels
 	 */
-	private void gray() {
-		// Loop over rows (i), columns (j), and colors (c).
-		for (int i = 0; i < image.rows(); i++) {
-			for (int j = 0; j < image.cols(); j++) {
-				double gray = luminosity(image.get(i, j, 2), image.get(i, j, 1), image.get(i, j, 0));
-				// Stuff the gray-scale value into each channel.
-				for (int c = 0; c < 3; c++) {
-					image.put(i, j, c, gray);
-				}
-			}
+	private void replace(Raster result) {
+		if (result.rows == image.rows() && result.cols == image.cols()) {
+			result.toMat(image);
+		}
+		else {
+			image = result.toMat();
 		}
 	}
 
+	/**
+	 * The operation that makes an image look grayscale (though still represented as BGR).
+	 * Uses the luminosity formula 0.299*r + 0.587*g + 0.114*b (see Kernels.gray).
+	 */
+	private static PointPipeline.RowOp gray() {
+		final Kernels k = Kernels.get();
+		return new PointPipeline.RowOp() {
+			public void applyRow(byte[] px, int from, int to, int i) {
+				k.gray(px, from, to);
+			}
+		};
+	}
+
 	/**
 	 * Returns a value that is one of val (if it's between min or max) or min or max (if it's outside that range).
 	 * @param val
@@ -267,95 +1037,70 @@ public class ImageProcessing {
 	}
 
 	/**
-	 * Adds random noise to each pixel.
+	 * The operation that adds random noise to each pixel.
 	 * @param scale		maximum value of the noise to be added
+	 * @param seed		random seed (see RandomSource)
 	 */
-	private void noise(double scale) {
-		// Loop over rows (i), columns (j), and colors (c).
-		for (int i = 0; i < image.rows(); i++) {
-			for (int j = 0; j < image.cols(); j++) {
-				for (int c = 0; c < 3; c++) {
+	private PointPipeline.RowOp noise(final double scale, final long seed) {
+		return new PointPipeline.RowOp() {
+			public void applyRow(byte[] px, int from, int to, int i) {
+				// This row's own random numbers
+				SplittableRandom random = RandomSource.forRow(seed, firstRow + i);
+				for (int k = from; k < to; k++) {
 					// Add noise (from -scale to +scale) but don't go outside 0-255 range.
-					double noise = scale * (2*Math.random() - 1);
-					double noisified = constrain(image.get(i, j, c) + noise, 0, 255);
-					image.put(i, j, c, noisified);
+					double noise = scale * (2*random.nextDouble() - 1);
+					double noisified = constrain((px[k] & 0xff) + noise, 0, 255);
+					px[k] = Raster.toByte(noisified);
 				}
 			}
-		}
+		};
 	}
 
 	/**
-	 * Scrambles the current image by setting each pixel from some nearby pixel.
+	 * Scrambles an image by setting each pixel from some nearby pixel.
+	 * @param r					the image
 	 * @param radius		maximum distance (+- that amount in x and y) of "nearby"
+	 * @param seed			random seed (see RandomSource)
+	 * @param result		where to put the scrambled image
 	 */
-	private void scramble(int radius) {
-		// Create a new image into which the resulting pixels will be stored.
-		CvMat result = CvMat.create(image.rows(), image.cols(), image.type());
-		// Loop over rows (i), columns (j), and colors (c).
-		for (int i = 0; i < image.rows(); i++) {
-			for (int j = 0; j < image.cols(); j++) {
-				// Random neighbors in i and j; constrain to image
-				int ni = (int) constrain(i + radius * (2*Math.random() - 1), 0, image.rows() - 1);
-				int nj = (int) constrain(j + radius * (2*Math.random() - 1), 0, image.cols() - 1);
-				for (int c = 0; c < 3; c++) {
-					result.put(i, j, c, image.get(ni, nj, c));
+	private Raster scramble(final Raster r, final int radius, final long seed, final Raster result) {
+		// Loop over bands of rows (i) in parallel, and within them columns (j), copying all the colors of a pixel at once.
+		TileScheduler.forRows(r, new TileScheduler.Band() {
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					// This row's own random numbers
+					SplittableRandom random = RandomSource.forRow(seed, firstRow + i);
+					for (int j = 0; j < r.cols; j++) {
+						// Random neighbors in i and j; constrain to image
+						int ni = (int) constrain(i + radius * (2*random.nextDouble() - 1), 0, r.rows - 1);
+						int nj = (int) constrain(j + radius * (2*random.nextDouble() - 1), 0, r.cols - 1);
+						System.arraycopy(r.data, r.index(ni, nj), result.data, result.index(i, j), r.channels);
+					}
 				}
 			}
-		}
-		// Make the current image be this new image.
-		image = result;
+		});
+		return result;
 	}
 
 	/**
-	 * Sharpens the current image by setting each pixel's values to subtract out those in a radius-sized box around it.
-	 * Use a smallish box (e.g., 1) unless the image is small or you're willing to wait a while.
+	 * Sharpens an image by setting each pixel's values to subtract out those in a radius-sized box around it
+	 * (weighting the pixel's own value so as to contribute 1 more than the neighbors).
+	 * @param r					the image
 	 * @param radius		size of box; e.g., 1 indicates +-1 around the pixel
+	 * @param into			where to put the sharpened image
 	 */
-	private void sharpen(int radius) 
-	{
-		// Create a new image into which the resulting pixels will be stored.
-		CvMat result = CvMat.create(image.rows(), image.cols(), image.type());
-		
-		// Loop over rows (i), columns (j), and colors (c).
-		for (int i = 0; i < image.rows(); i++) 
-		{
-			for (int j = 0; j < image.cols(); j++) 
-			{
-				for (int c = 0; c < 3; c++) 
-				{
-					double sum = 0;
-					int n = 0; //number of neighbors
-					// Loop over neighbor rows (ni) and columns (nj)
-					// but be careful not to go outside image (max, min stuff).
-					for (int ni = Math.max(0, i - radius); 
-							 ni < Math.min(image.rows(), i + 1 + radius); 
-							 ni++) 
-					{
-						for (int nj = Math.max(0, j - radius); 
-								 nj < Math.min(image.cols(), j + 1 + radius);
-								 nj++) 
-						{
-							// Subtract out all the neighbors
-							if (ni != i || nj != j) 
-							{
-								sum -= image.get(ni, nj, c);
-								n++;
-							}
-						}
-					}
-					// Add in the pixel's own value, weighted so as to contribute 1 more than the neighbors
-					// (but when setting, be sure not to go outside 0-255).
-					sum += (n+1) * image.get(i, j, c);
-					if(sum > 0)
-					{
-						System.out.println(sum + " " + n + " " + image.get(i,j,c));
-					}
-					result.put(i, j, c, constrain(sum, 0, 255));
-				}
-			}
-		}
-		// Make the current image be this new image.
-		image = result;
+	private Raster sharpen(Raster r, int radius, Raster into) {
+		return convolve(r, Convolution.sharpen(radius), into);
+	}
+
+	/**
+	 * Convolves an image with a kernel, in the current border mode (see Convolution).
+	 * @param r			the image
+	 * @param k			the kernel
+	 * @param into	where to put the convolved image
+	 */
+	private Raster convolve(Raster r, Convolution.Kernel k, Raster into) {
+		return Convolution.apply(r, k, border, into);
 	}
 
 	/**
@@ -18,8 +18,8 @@ public class ImageProcessingCore {
 
 	public ImageProcessingCore() {
 		// Read images, directly getting pixel matrices.
-		image = cvLoadImageM("img/baker.jpg");
-		mixin = cvLoadImageM("img/rain.jpg");
+		image = ImageCache.load("img/baker.jpg");
+		mixin = ImageCache.load("img/rain.jpg");
 
 		// Make sure they were successfully loaded.
 		if (image == null) {
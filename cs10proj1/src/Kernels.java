@@ -0,0 +1,175 @@
+/**
+ * Inner loops for the point operations, working on runs of 8-bit values in byte arrays (as in Raster.data).
+ * This class has the plain scalar versions, in double arithmetic, storing values the way CvMat.put does.
+ * FixedKernels has integer (16.16 fixed point) versions instead, faster but possibly 1 off, and VectorKernels
+ * has SIMD versions of those, using the jdk.incubator.vector module. Since both can be 1 off, get() only picks them
+ * when asked to, so by default the results are exactly the double ones: the vector versions when the kernels.vector
+ * system property is true (and they can run, with --add-modules jdk.incubator.vector and vectors of at least 256 bits);
+ * otherwise, FixedKernels when the kernels.fixed system property is true; else these.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class Kernels {
+	private static Kernels kernels;		// the chosen implementation
+
+	// Blend modes: how a value a is combined with a mixin value b (both 0-255) before weighting.
+	public static final int NORMAL = 0;			// b
+	public static final int MULTIPLY = 1;		// a*b/255 (darkens)
+	public static final int SCREEN = 2;			// 255 - (255-a)*(255-b)/255 (lightens)
+	public static final int OVERLAY = 3;		// multiply (doubled) where a is dark, screen (doubled) where it's light
+	public static final String[] modeNames = { "normal", "multiply", "screen", "overlay" };
+
+	/**
+	 * The kernels to use: vector ones if the kernels.vector system property is true and they're supported;
+	 * else fixed-point ones if the kernels.fixed system property is true; else scalar ones.
+	 */
+	public static synchronized Kernels get() {
+		if (kernels == null) {
+			if (Boolean.getBoolean("kernels.vector")) {
+				// By reflection, so that this class doesn't need the vector module.
+				try {
+					Class<?> c = Class.forName("VectorKernels");
+					if ((Boolean) c.getMethod("isSupported").invoke(null)) {
+						kernels = (Kernels) c.getDeclaredConstructor().newInstance();
+					}
+					else {
+						System.out.println("vector kernels need vectors of at least 256 bits");
+					}
+				}
+				catch (ReflectiveOperationException e) {
+					System.out.println("no vector kernels: " + e);
+				}
+				catch (LinkageError e) {
+					System.out.println("no vector kernels (run with --add-modules jdk.incubator.vector)");
+				}
+			}
+			if (kernels == null && Boolean.getBoolean("kernels.fixed")) {
+				kernels = new FixedKernels();
+			}
+			if (kernels == null) {
+				kernels = new Kernels();
+			}
+		}
+		return kernels;
+	}
+
+	/**
+	 * Whether these are the SIMD versions.
+	 */
+	public boolean isVector() {
+		return false;
+	}
+
+	/**
+	 * Whether these are the fixed-point versions (which can be 1 off from the others).
+	 */
+	public boolean isFixed() {
+		return false;
+	}
+
+	/**
+	 * Blends values in place: a = a*w + b*(1-w).
+	 * @param a			values to blend into
+	 * @param ap		index of the first one in a
+	 * @param b			values to blend with
+	 * @param bp		index of the first one in b
+	 * @param n			how many values
+	 * @param w			weight on a (0-1), with 1-w on b
+	 */
+	public void blend(byte[] a, int ap, byte[] b, int bp, int n, double w) {
+		for (int k = 0; k < n; k++) {
+			a[ap + k] = Raster.toByte((a[ap + k] & 0xff) * w + (b[bp + k] & 0xff) * (1 - w));
+		}
+	}
+
+	/**
+	 * Blends pixels in place, in one of the blend modes and optionally through a mask:
+	 * a = a*wa + mode(a,b)*(1-wa), where wa is w, or with a mask, 1 - (1-w)*m/255 for the pixel's mask value m
+	 * (so black in the mask leaves a alone, and white blends it by w).
+	 * In NORMAL mode without a mask, this is just blend(a, ap, b, bp, n, w).
+	 * @param a			values to blend into
+	 * @param ap		index of the first one in a
+	 * @param b			values to blend with
+	 * @param bp		index of the first one in b
+	 * @param n			how many values
+	 * @param w			weight on a (0-1)
+	 * @param mode	NORMAL, MULTIPLY, SCREEN, or OVERLAY
+	 * @param mask	one value per pixel, or null for no mask
+	 * @param mp		index of the first pixel's value in mask
+	 * @param ch		number of channels (values per pixel) in a and b
+	 */
+	public void blend(byte[] a, int ap, byte[] b, int bp, int n, double w, int mode, byte[] mask, int mp, int ch) {
+		if (mode == NORMAL && mask == null) {
+			blend(a, ap, b, bp, n, w);
+			return;
+		}
+		for (int k = 0; k < n; k++) {
+			int x = a[ap + k] & 0xff, y = b[bp + k] & 0xff;
+			double mixed;
+			if (mode == MULTIPLY) mixed = x * y / 255.0;
+			else if (mode == SCREEN) mixed = 255 - (255 - x) * (255 - y) / 255.0;
+			else if (mode == OVERLAY) mixed = x < 128 ? 2 * x * y / 255.0 : 255 - 2 * (255 - x) * (255 - y) / 255.0;
+			else mixed = y;
+			double wa = mask == null ? w : 1 - (1 - w) * (mask[mp + k / ch] & 0xff) / 255.0;
+			a[ap + k] = Raster.toByte(x * wa + mixed * (1 - wa));
+		}
+	}
+
+	/**
+	 * Scales values in place: v = v*s.
+	 * @param px		values
+	 * @param from	index of first pixel (inclusive)
+	 * @param to		index after last pixel (exclusive)
+	 * @param s			scale factor (0-1)
+	 */
+	public void scale(byte[] px, int from, int to, double s) {
+		Lut lut = Lut.scale(s);
+		for (int p = from; p < to; p += 3) {
+			lut.apply(px, p, 0, 0);
+		}
+	}
+
+	/**
+	 * Replaces each BGR pixel's values with its luminosity, 0.299*r + 0.587*g + 0.114*b.
+	 * @param px		values
+	 * @param from	index of first pixel (inclusive)
+	 * @param to		index after last pixel (exclusive)
+	 */
+	public void gray(byte[] px, int from, int to) {
+		double[][] lum = Lut.luminosity();
+		for (int p = from; p < to; p += 3) {
+			double gray = lum[2][px[p + 2] & 0xff] + lum[1][px[p + 1] & 0xff] + lum[0][px[p] & 0xff];
+			px[p] = px[p + 1] = px[p + 2] = Raster.toByte(gray);
+		}
+	}
+
+	/**
+	 * Stores ints as bytes, constraining them to 0-255.
+	 * @param src		values
+	 * @param sp		index of the first one in src
+	 * @param dst		where to store them
+	 * @param dp		index of the first one in dst
+	 * @param n			how many values
+	 */
+	public void clamp(int[] src, int sp, byte[] dst, int dp, int n) {
+		for (int k = 0; k < n; k++) {
+			int v = src[sp + k];
+			dst[dp + k] = (byte) (v < 0 ? 0 : v > 255 ? 255 : v);
+		}
+	}
+
+	/**
+	 * Stores ints divided by the same (positive) number as bytes, truncating, e.g., to average sums of that many values.
+	 * @param src			values
+	 * @param sp			index of the first one in src
+	 * @param dst			where to store them
+	 * @param dp			index of the first one in dst
+	 * @param n				how many values
+	 * @param divisor	what to divide by
+	 */
+	public void divide(int[] src, int sp, byte[] dst, int dp, int n, int divisor) {
+		for (int k = 0; k < n; k++) {
+			dst[dp + k] = (byte) (src[sp + k] / divisor);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lookup tables for 8-bit point operations.
+ * Since a channel value can only be 0-255, an operation that maps each value to a new one
+ * (scaling, gamma, brightness, contrast, ...) can be computed once for all 256 possible values,
+ * and then applied to an image by table lookup instead of floating-point math.
+ * Tables are built on first use and cached by their parameters.
+ * A table is itself a point operation, and consecutive tables in a PointPipeline are merged into one.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class Lut implements PointPipeline.PointOp {
+	private static final int maxCached = 64;				// setup: how many tables to keep around
+	private static final Map<String, Object> cache = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+			return size() > maxCached;
+		}
+	};
+
+	private final byte[][] tables;	// one 256-entry table per channel (BGR)
+
+	/**
+	 * Creates a lookup table from its per-channel tables.
+	 * @param b		blue table
+	 * @param g		green table
+	 * @param r		red table
+	 */
+	public Lut(byte[] b, byte[] g, byte[] r) {
+		tables = new byte[][] { b, g, r };
+	}
+
+	/**
+	 * Creates a lookup table that treats all the channels the same.
+	 */
+	public Lut(byte[] t) {
+		this(t, t, t);
+	}
+
+	/**
+	 * Replaces a pixel's values by looking them up.
+	 * @param px		pixel values (as in Raster.data)
+	 * @param p			index of the pixel's first channel
+	 * @param i			the pixel's row (ignored)
+	 * @param j			the pixel's column (ignored)
+	 */
+	public void apply(byte[] px, int p, int i, int j) {
+		px[p] = tables[0][px[p] & 0xff];
+		px[p + 1] = tables[1][px[p + 1] & 0xff];
+		px[p + 2] = tables[2][px[p + 2] & 0xff];
+	}
+
+	/**
+	 * A table that does this one and then the other one, so the two can be applied with a single lookup.
+	 */
+	public Lut then(Lut next) {
+		byte[][] t = new byte[3][256];
+		for (int c = 0; c < 3; c++) {
+			for (int v = 0; v < 256; v++) {
+				t[c][v] = next.tables[c][tables[c][v] & 0xff];
+			}
+		}
+		return new Lut(t[0], t[1], t[2]);
+	}
+
+	/**
+	 * Scales values, as in dim: v*s, stored the way CvMat.put would (no clamping, so keep s in 0-1).
+	 * @param s		scale factor
+	 */
+	public static synchronized Lut scale(double s) {
+		String key = "scale " + s;
+		Lut lut = (Lut) cache.get(key);
+		if (lut == null) {
+			byte[] t = new byte[256];
+			for (int v = 0; v < 256; v++) {
+				t[v] = Raster.toByte(v * s);
+			}
+			lut = new Lut(t);
+			cache.put(key, lut);
+		}
+		return lut;
+	}
+
+	/**
+	 * Gamma curve: 255 * (v/255)^g, so g < 1 lightens and g > 1 darkens.
+	 * @param g		gamma
+	 */
+	public static synchronized Lut gamma(double g) {
+		String key = "gamma " + g;
+		Lut lut = (Lut) cache.get(key);
+		if (lut == null) {
+			byte[] t = new byte[256];
+			for (int v = 0; v < 256; v++) {
+				t[v] = clamp(255 * Math.pow(v / 255.0, g));
+			}
+			lut = new Lut(t);
+			cache.put(key, lut);
+		}
+		return lut;
+	}
+
+	/**
+	 * Brightness adjustment: v + d, kept within 0-255.
+	 * @param d		amount to add (negative to darken)
+	 */
+	public static synchronized Lut brightness(double d) {
+		String key = "brightness " + d;
+		Lut lut = (Lut) cache.get(key);
+		if (lut == null) {
+			byte[] t = new byte[256];
+			for (int v = 0; v < 256; v++) {
+				t[v] = clamp(v + d);
+			}
+			lut = new Lut(t);
+			cache.put(key, lut);
+		}
+		return lut;
+	}
+
+	/**
+	 * Contrast adjustment: stretches values away from (k > 1) or toward (k < 1) the middle gray, kept within 0-255.
+	 * @param k		contrast factor
+	 */
+	public static synchronized Lut contrast(double k) {
+		String key = "contrast " + k;
+		Lut lut = (Lut) cache.get(key);
+		if (lut == null) {
+			byte[] t = new byte[256];
+			for (int v = 0; v < 256; v++) {
+				t[v] = clamp(128 + (v - 128) * k);
+			}
+			lut = new Lut(t);
+			cache.put(key, lut);
+		}
+		return lut;
+	}
+
+	/**
+	 * Weighted tables for luminosity (as in ImageProcessing.gray), so that gray = table[0][b] + table[1][g] + table[2][r].
+	 * The sum is the same double the formula 0.299*r + 0.587*g + 0.114*b gives, if added in the order r, g, b.
+	 * @return	tables for blue, green, and red
+	 */
+	public static synchronized double[][] luminosity() {
+		String key = "luminosity";
+		double[][] t = (double[][]) cache.get(key);
+		if (t == null) {
+			t = new double[3][256];
+			for (int v = 0; v < 256; v++) {
+				t[0][v] = 0.114 * v;
+				t[1][v] = 0.587 * v;
+				t[2][v] = 0.299 * v;
+			}
+			cache.put(key, t);
+		}
+		return t;
+	}
+
+	/**
+	 * The byte for a value constrained to 0-255.
+	 */
+	private static byte clamp(double v) {
+		return Raster.toByte(Math.max(0, Math.min(255, v)));
+	}
+}
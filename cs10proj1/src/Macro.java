@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+
+/**
+ * A named sequence of ImageProcessing commands (e.g., "g d d h s"), compiled once into a plan for running
+ * them again and again on whatever image comes along (see ImageProcessing.runMacro, and Batch).
+ * The plan is a list of stages: each run of consecutive point commands (those that change each pixel based
+ * only on its own values) is one stage, run as a single fused PointPipeline pass, and each other command is a stage of its own.
+ * The image is worked on as a Raster the whole way through, converted from the CvMat once at the start and back once
+ * at the end, in two buffers kept by the macro: a neighborhood command reads one and writes the other, and the point
+ * and in-place commands just work on the current one. So once the buffers are the right size (after the first
+ * image of that size), running the macro allocates no images of its own.
+ * Since the buffers are reused, a macro should only be run by one thread at a time.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class Macro {
+	private static final String disallowed = "iuUw";	// commands that make no sense in a macro (pipeline mode, "p", is left out, since it's what a macro does anyway)
+
+	public final String name;
+	private final ArrayList<String[]> stages;		// the plan
+	private Raster current, spare;							// the buffers
+
+	/**
+	 * Compiles a macro.
+	 * @param name				what to call it (anything but a command)
+	 * @param commands		the commands, in order (see ImageProcessing.isCommand)
+	 * @throws IllegalArgumentException		if the name is a command, or a command isn't one or can't be in a macro
+	 */
+	public Macro(String name, String[] commands) {
+		if (name.isEmpty() || name.contains(" ") || ImageProcessing.isCommand(name)) {
+			throw new IllegalArgumentException("can't call a macro \"" + name + "\"");
+		}
+		this.name = name;
+		stages = new ArrayList<String[]>();
+		ArrayList<String> run = new ArrayList<String>();	// the point commands since the last other command
+		for (String op : commands) {
+			if (!ImageProcessing.isCommand(op) || disallowed.indexOf(op.charAt(0)) >= 0) {
+				throw new IllegalArgumentException("can't use " + op + " in a macro");
+			}
+			if (op.charAt(0) == 'p') continue;
+			if (ImageProcessing.isPoint(op)) {
+				run.add(op);
+			}
+			else {
+				endRun(run);
+				stages.add(new String[] { op });
+			}
+		}
+		endRun(run);
+	}
+
+	/**
+	 * Makes a stage of the pending run of point commands, if there are any.
+	 */
+	private void endRun(ArrayList<String> run) {
+		if (run.isEmpty()) return;
+		stages.add(run.toArray(new String[run.size()]));
+		run.clear();
+	}
+
+	/**
+	 * The stages: each a run of point commands, to be fused, or a single other command.
+	 */
+	public String[][] stages() {
+		return stages.toArray(new String[stages.size()][]);
+	}
+
+	/**
+	 * Copies an image into the current buffer (resizing it if need be).
+	 * @return		the buffer
+	 */
+	public Raster load(CvMat image) {
+		current = Raster.fromMat(image, current);
+		return current;
+	}
+
+	/**
+	 * A buffer (the same size as r, but not r) for a command to write its result into, which then becomes the current one.
+	 * @param r		the image as it stands: one of the buffers, or a new raster (e.g., from turning a non-square image), which is adopted
+	 */
+	public Raster into(Raster r) {
+		if (r != current) {
+			spare = current;
+			current = r;
+		}
+		if (spare == null || spare.rows != r.rows || spare.cols != r.cols || spare.channels != r.channels) {
+			spare = r.blankCopy();
+		}
+		// Swap, so the result is current.
+		Raster result = spare;
+		spare = current;
+		current = result;
+		return result;
+	}
+
+	/**
+	 * The commands, with the fused stages in brackets, e.g., "warm: [g d0.8] a3 [k r10]".
+	 */
+	public String toString() {
+		String s = name + ":";
+		for (String[] stage : stages) {
+			s += " " + (stage.length > 1 ? Arrays.toString(stage).replace(",", "") : stage[0]);
+		}
+		return s;
+	}
+}
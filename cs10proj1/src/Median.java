@@ -0,0 +1,149 @@
+import java.util.Arrays;
+
+/**
+ * Median filter whose cost per pixel doesn't depend on the radius (after Perreault and Hebert's constant-time median).
+ * Each column keeps a histogram of its values in the box's rows; moving down a row adds one value to it and drops one.
+ * The box's own histogram is then the sum of its columns' histograms, and moving right a column adds the entering
+ * column's histogram and subtracts the leaving one's. The median is found by counting up the histogram to the middle.
+ * To keep that cheap, histograms are in two levels: 16 coarse bins (the top 4 bits of the value), in which the
+ * middle is found first, and then the 16 fine bins (all 8 bits) within that coarse bin. The box's fine bins are only
+ * brought up to date for the coarse bin where they're needed, catching up on the columns that have entered and left since.
+ * At the borders the box shrinks to the part inside the image, as in BoxBlur; the median of an even number of values
+ * is the higher of the two middle ones.
+ * Runs on the TileScheduler, in a few big bands of rows, since each band has to set up its own column histograms.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class Median {
+	/**
+	 * Filters an image by setting each pixel's values to the median of those in a radius-sized box around it.
+	 * @param image		image to filter (not modified)
+	 * @param radius	size of box; e.g., 1 indicates +-1 around the pixel
+	 * @return				filtered image
+	 */
+	public static Raster filter(Raster image, int radius) {
+		return filter(image, radius, image.blankCopy());
+	}
+
+	/**
+	 * Filters an image as above, into a given raster.
+	 * @param image		image to filter (not modified)
+	 * @param radius	size of box; e.g., 1 indicates +-1 around the pixel
+	 * @param result	where to put the filtered image (the same size, but not the image itself)
+	 * @return				result
+	 */
+	public static Raster filter(final Raster image, final int radius, final Raster result) {
+		final int rows = image.rows, cols = image.cols, nch = image.channels;
+		// Two bands per thread (to even out the load); each has cols*channels*(256+16) histogram counts.
+		final int bands = Math.min(rows, TileScheduler.getParallelism() > 1 ? 2 * TileScheduler.getParallelism() : 1);
+		final int bandRows = (rows + bands - 1) / bands;
+		TileScheduler.forRows(bands, cols * nch * (256 + 16) * 2, new TileScheduler.Band() {
+			public void run(int fromBand, int toBand) {
+				for (int b = fromBand; b < toBand; b++) {
+					filterRows(image, result, radius, b * bandRows, Math.min(rows, (b + 1) * bandRows));
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Filters rows from (inclusive) to to (exclusive) of the image into the result.
+	 */
+	private static void filterRows(Raster image, Raster result, int radius, int from, int to) {
+		int rows = image.rows, cols = image.cols, nch = image.channels;
+		byte[] px = image.data;
+		// Column histograms, for each channel of each column: 256 fine bins (colFine) and 16 coarse ones (colCoarse).
+		// Counts never exceed the box height, so chars do.
+		char[] colFine = new char[cols * nch * 256], colCoarse = new char[cols * nch * 16];
+		// The box's histogram for the channel at hand: coarse, fine, and for each coarse bin, the column its fine bins are up to date for.
+		int[] coarse = new int[16], fine = new int[256], upTo = new int[16];
+
+		// Start the columns with the rows the box covers just before row "from" gets its entering row.
+		for (int i = Math.max(0, from - radius); i < Math.min(rows, from + radius); i++) {
+			add(px, i * image.stride, cols * nch, colFine, colCoarse, 1);
+		}
+		for (int i = from; i < to; i++) {
+			if (i + radius < rows) add(px, (i + radius) * image.stride, cols * nch, colFine, colCoarse, 1);
+			if (i > from && i - radius - 1 >= 0) add(px, (i - radius - 1) * image.stride, cols * nch, colFine, colCoarse, -1);
+			// Number of rows the box covers
+			int nr = Math.min(rows, i + 1 + radius) - Math.max(0, i - radius);
+			for (int c = 0; c < nch; c++) {
+				// Start the box with the columns it covers just before column 0 gets its entering column.
+				Arrays.fill(coarse, 0);
+				Arrays.fill(upTo, Integer.MIN_VALUE / 2);	// long enough ago that the fine bins get recomputed
+				for (int j = 0; j < Math.min(cols, radius); j++) {
+					addColumn(coarse, 0, colCoarse, (j * nch + c) * 16, 16, 1);
+				}
+				for (int j = 0; j < cols; j++) {
+					if (j + radius < cols) addColumn(coarse, 0, colCoarse, ((j + radius) * nch + c) * 16, 16, 1);
+					if (j - radius - 1 >= 0) addColumn(coarse, 0, colCoarse, ((j - radius - 1) * nch + c) * 16, 16, -1);
+					int nc = Math.min(cols, j + 1 + radius) - Math.max(0, j - radius);
+					// Find the coarse bin holding the middle value, then the fine bin within it.
+					int rank = nr * nc / 2, k = 0;
+					while (rank >= coarse[k]) {
+						rank -= coarse[k];
+						k++;
+					}
+					catchUp(fine, k, upTo, j, radius, cols, nch, c, colFine);
+					int v = k * 16;
+					while (rank >= fine[v]) {
+						rank -= fine[v];
+						v++;
+					}
+					result.data[i * result.stride + j * nch + c] = (byte) v;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds (or, with sign -1, removes) a row's values to (from) the column histograms.
+	 * @param px		image values
+	 * @param p			index of the row's first value
+	 * @param n			number of values in the row (cols * channels)
+	 */
+	private static void add(byte[] px, int p, int n, char[] colFine, char[] colCoarse, int sign) {
+		for (int k = 0; k < n; k++) {
+			int v = px[p + k] & 0xff;
+			colFine[k * 256 + v] += sign;
+			colCoarse[k * 16 + (v >> 4)] += sign;
+		}
+	}
+
+	/**
+	 * Adds (or, with sign -1, subtracts) a column's histogram bins to (from) the box's.
+	 * @param box		the box's bins
+	 * @param bp		index of the first one to add to
+	 * @param col		the columns' bins
+	 * @param cp		index of the column's first one to add
+	 * @param n			how many bins
+	 */
+	private static void addColumn(int[] box, int bp, char[] col, int cp, int n, int sign) {
+		for (int k = 0; k < n; k++) {
+			box[bp + k] += sign * col[cp + k];
+		}
+	}
+
+	/**
+	 * Brings the box's fine bins within coarse bin k up to date for column j: by adding and subtracting the
+	 * columns that have entered and left since they were last brought up to date, or if that's more than the
+	 * box's width ago, by adding up the columns in the box from scratch.
+	 */
+	private static void catchUp(int[] fine, int k, int[] upTo, int j, int radius, int cols, int nch, int c, char[] colFine) {
+		int bp = k * 16;
+		if (j - upTo[k] > 2 * radius + 1) {
+			Arrays.fill(fine, bp, bp + 16, 0);
+			for (int jj = Math.max(0, j - radius); jj <= Math.min(cols - 1, j + radius); jj++) {
+				addColumn(fine, bp, colFine, (jj * nch + c) * 256 + bp, 16, 1);
+			}
+		}
+		else {
+			for (int jj = upTo[k] + 1; jj <= j; jj++) {
+				if (jj + radius < cols) addColumn(fine, bp, colFine, ((jj + radius) * nch + c) * 256 + bp, 16, 1);
+				if (jj - radius - 1 >= 0) addColumn(fine, bp, colFine, ((jj - radius - 1) * nch + c) * 256 + bp, 16, -1);
+			}
+		}
+		upTo[k] = j;
+	}
+}
@@ -0,0 +1,190 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Measurements of the operations run on images (see ImageProcessing.dispatch): for each one,
+ * how long it took, how many pixels per second that comes to, how many bytes it allocated, and how many threads it ran on.
+ * Totals per operation are kept for a summary (the "i" command in ImageProcessing), and each operation is also
+ * recorded as a JFR event (cs10.Operation), so it shows up alongside GC and the rest in a flight recording, e.g.,
+ *   java -XX:StartFlightRecording=filename=ops.jfr ImageProcessing
+ * Allocation is added up over the calling thread and the TileScheduler threads that ran the operation's bands,
+ * so when several images are processed at once (as in Batch), operations sharing those threads get charged for each other.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class OpStats {
+	private static LinkedHashMap<String, Totals> totals = new LinkedHashMap<String, Totals>();	// in order first run
+	private static final com.sun.management.ThreadMXBean threads = allocationCounter();	// null if the JVM doesn't count allocation
+
+	/**
+	 * An operation, as recorded by JFR.
+	 */
+	@Name("cs10.Operation")
+	@Label("Image Operation")
+	@Category("CS 10")
+	@Description("A command run on an image")
+	static class OpEvent extends jdk.jfr.Event {
+		@Label("Operation")
+		String op;
+
+		@Label("Pixels")
+		long pixels;
+
+		@Label("Pixels per Second")
+		double pixelsPerSecond;
+
+		@Label("Allocated")
+		@DataAmount
+		long allocated;
+
+		@Label("Threads")
+		int threads;
+	}
+
+	/**
+	 * What's been seen of one operation.
+	 */
+	private static class Totals {
+		int count;
+		long nanos, pixels, allocated;
+		int threads;		// the most any run used
+	}
+
+	/**
+	 * An operation in progress, from begin to end.
+	 */
+	public static class Span {
+		private final String name;
+		private final long pixels;
+		private final Thread caller = Thread.currentThread();
+		private final Set<Thread> used = ConcurrentHashMap.newKeySet();	// threads running its bands
+		private final Set<Thread> outer;		// what the calling thread was tracking before
+		private final long[] ids, before;		// every thread, and how much each had allocated at the start
+		private final OpEvent event = new OpEvent();
+		private final long start;
+
+		private Span(String name, long pixels) {
+			this.name = name;
+			this.pixels = pixels;
+			outer = TileScheduler.track(used);
+			ids = threads != null ? threads.getAllThreadIds() : null;
+			before = threads != null ? threads.getThreadAllocatedBytes(ids) : null;
+			event.begin();
+			start = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Finds the JVM's per-thread allocation counter, if it has one.
+	 */
+	private static com.sun.management.ThreadMXBean allocationCounter() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+		com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) bean;
+		if (!counter.isThreadAllocatedMemorySupported()) return null;
+		counter.setThreadAllocatedMemoryEnabled(true);
+		return counter;
+	}
+
+	/**
+	 * Starts measuring an operation (run in this thread, possibly with help from the TileScheduler).
+	 * @param name		which operation
+	 * @param pixels	how many pixels it works on
+	 * @return				to hand to end
+	 */
+	public static Span begin(String name, long pixels) {
+		return new Span(name, pixels);
+	}
+
+	/**
+	 * Finishes measuring an operation, adding it to the totals and recording the JFR event.
+	 */
+	public static void end(Span span) {
+		long nanos = System.nanoTime() - span.start;
+		TileScheduler.track(span.outer);
+		long allocated = 0;
+		if (threads != null) {
+			long[] after = threads.getThreadAllocatedBytes(span.ids);
+			for (int k = 0; k < span.ids.length; k++) {
+				// Only the threads that worked on it (and that are still around).
+				if (after[k] >= 0 && span.before[k] >= 0 && isUsed(span, span.ids[k])) {
+					allocated += after[k] - span.before[k];
+				}
+			}
+		}
+		double pixelsPerSecond = span.pixels * 1e9 / Math.max(1, nanos);
+		int used = Math.max(1, span.used.size());	// operations that don't use the TileScheduler run in the caller
+
+		span.event.end();
+		if (span.event.shouldCommit()) {
+			span.event.op = span.name;
+			span.event.pixels = span.pixels;
+			span.event.pixelsPerSecond = pixelsPerSecond;
+			span.event.allocated = allocated;
+			span.event.threads = used;
+			span.event.commit();
+		}
+
+		synchronized (OpStats.class) {
+			Totals t = totals.get(span.name);
+			if (t == null) {
+				t = new Totals();
+				totals.put(span.name, t);
+			}
+			t.count++;
+			t.nanos += nanos;
+			t.pixels += span.pixels;
+			t.allocated += allocated;
+			t.threads = Math.max(t.threads, used);
+		}
+	}
+
+	/**
+	 * Stops measuring an operation that didn't finish (e.g., a cancelled refinement), without counting it
+	 * in the totals or recording the JFR event.
+	 */
+	public static void cancel(Span span) {
+		TileScheduler.track(span.outer);
+	}
+
+	/**
+	 * Whether the thread with the given id worked on the operation (it's the caller, or ran some of its bands).
+	 */
+	@SuppressWarnings("deprecation")
+	private static boolean isUsed(Span span, long id) {
+		if (span.caller.getId() == id) return true;
+		for (Thread t : span.used) {
+			if (t.getId() == id) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Forgets the totals.
+	 */
+	public static synchronized void clear() {
+		totals.clear();
+	}
+
+	/**
+	 * A table of the totals, one line per operation, for display.
+	 */
+	public static synchronized String summary() {
+		StringBuilder s = new StringBuilder(String.format("%-6s %6s %10s %9s %11s %10s %8s%n",
+				"op", "runs", "total ms", "avg ms", "Mpixels/s", "KB/run", "threads"));
+		for (String name : totals.keySet()) {
+			Totals t = totals.get(name);
+			s.append(String.format("%-6s %6d %10.1f %9.2f %11.1f %10d %8d%n", name, t.count, t.nanos / 1e6,
+					t.nanos / 1e6 / t.count, t.pixels * 1e3 / Math.max(1, t.nanos), t.allocated / t.count >> 10, t.threads));
+		}
+		if (threads == null) s.append("(this JVM doesn't count allocation)\n");
+		return s.toString();
+	}
+}
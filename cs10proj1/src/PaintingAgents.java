@@ -2,8 +2,8 @@ import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
 import java.util.ArrayList;
+import java.util.SplittableRandom;
 import static com.googlecode.javacv.cpp.opencv_core.*;
-import static com.googlecode.javacv.cpp.opencv_highgui.*;
 
 /**
  * Animated agents.
@@ -20,7 +20,7 @@ public class PaintingAgents extends JFrame {
 	public PaintingAgents() {
 		super("Painters");
 		
-		image = cvLoadImageM("img/dart0.jpg");
+		image = ImageCache.load("img/dart0.jpg");
 		width = image.cols();
 		height = image.rows();
 		blank = CvMat.create(height,width,image.type());
@@ -71,14 +71,15 @@ public class PaintingAgents extends JFrame {
 	private class Agent {
 		protected double x, y;	// position
 		protected int r=10;			// radius; defaults to 5
+		protected SplittableRandom random = RandomSource.split();	// this agent's own random numbers
 		protected Color color;
 
 		/**
 		 * Initializes at random position (and default radius)
 		 */
 		public Agent() {
-			x = Math.random()*width;
-			y = Math.random()*height;
+			x = random.nextDouble()*width;
+			y = random.nextDouble()*height;
 		}
 
 		/**
@@ -159,8 +160,8 @@ public class PaintingAgents extends JFrame {
 		
 		public Bouncer() {
 			// Step size randomly between -5 and +5
-			dx = 10 * (Math.random() - 0.5);
-			dy = 10 * (Math.random() - 0.5);
+			dx = 10 * (random.nextDouble() - 0.5);
+			dy = 10 * (random.nextDouble() - 0.5);
 		}
 		
 		public void move() {
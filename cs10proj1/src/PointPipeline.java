@@ -0,0 +1,111 @@
+import java.util.ArrayList;
+
+/**
+ * A sequence of per-pixel ("point") operations, fused so that running them makes just one pass
+ * over the image: each row goes through all the operations, in order, while it's in the cache,
+ * before moving on to the next. That gives the same result as running the operations one after another
+ * over the whole image, since none of them looks at any other pixel.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class PointPipeline {
+	private ArrayList<RowOp> ops;		// the operations, in order
+	private int count;							// how many operations have been added (including merged ones)
+
+	/**
+	 * An operation that updates one pixel in place, based only on that pixel's values.
+	 */
+	public interface PointOp {
+		/**
+		 * Updates the pixel.
+		 * @param px		pixel values (as in Raster.data)
+		 * @param p			index of the pixel's first channel
+		 * @param i			the pixel's row
+		 * @param j			the pixel's column
+		 */
+		void apply(byte[] px, int p, int i, int j);
+	}
+
+	/**
+	 * An operation that updates a whole row of pixels at once (e.g., with SIMD Kernels,
+	 * or with a random number generator for the row), each based only on its own values.
+	 */
+	public interface RowOp {
+		/**
+		 * Updates the pixels from index from (inclusive) to index to (exclusive), all in row i.
+		 */
+		void applyRow(byte[] px, int from, int to, int i);
+	}
+
+	/**
+	 * Runs a point operation on each pixel of a row.
+	 */
+	private static class Pixels implements RowOp {
+		private final PointOp op;
+
+		Pixels(PointOp op) {
+			this.op = op;
+		}
+
+		public void applyRow(byte[] px, int from, int to, int i) {
+			for (int j = 0, p = from; p < to; j++, p += 3) {
+				op.apply(px, p, i, j);
+			}
+		}
+	}
+
+	public PointPipeline() {
+		ops = new ArrayList<RowOp>();
+	}
+
+	/**
+	 * Adds an operation to the end of the pipeline.
+	 * A lookup table following another one is merged into it, so both take a single lookup.
+	 */
+	public void add(PointOp op) {
+		count++;
+		int last = ops.size() - 1;
+		if (op instanceof Lut && last >= 0 && ops.get(last) instanceof Pixels && ((Pixels) ops.get(last)).op instanceof Lut) {
+			ops.set(last, new Pixels(((Lut) ((Pixels) ops.get(last)).op).then((Lut) op)));
+		}
+		else {
+			ops.add(new Pixels(op));
+		}
+	}
+
+	/**
+	 * Adds an operation that works a row at a time to the end of the pipeline.
+	 * (Not another add, since a lambda could be either kind of operation.)
+	 */
+	public void addRow(RowOp op) {
+		count++;
+		ops.add(op);
+	}
+
+	/**
+	 * How many operations are in the pipeline.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Runs all the operations on the raster, in place, in a single pass over its pixels
+	 * (using the TileScheduler to do bands of rows in parallel).
+	 * @param r		the raster
+	 */
+	public void run(final Raster r) {
+		if (ops.isEmpty()) return;
+		final RowOp[] steps = ops.toArray(new RowOp[ops.size()]);
+		TileScheduler.forRows(r, new TileScheduler.Band() {
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					int start = r.index(i, 0), end = start + r.stride;
+					for (RowOp op : steps) {
+						op.applyRow(r.data, start, end, i);
+					}
+				}
+			}
+		});
+	}
+}
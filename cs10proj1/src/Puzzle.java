@@ -3,7 +3,6 @@ import java.awt.event.*;
 import javax.swing.*;
 import java.util.ArrayList;
 import com.googlecode.javacv.cpp.opencv_core.CvMat;
-import static com.googlecode.javacv.cpp.opencv_highgui.*;
 
 /**
  * Simple puzzle of rectangular fragments from an image. Click on a pair of pieces to swap.
@@ -23,7 +22,7 @@ public class Puzzle extends JFrame {
 		super("Puzzle");
 
 		// Read an image and make sure it was successfully loaded.
-		image = cvLoadImageM("img/baker.jpg");
+		image = ImageCache.load("img/baker.jpg");
 		if (image == null) {
 			System.out.println("image not found!");
 			System.exit(1);
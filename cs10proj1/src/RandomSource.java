@@ -0,0 +1,55 @@
+import java.util.SplittableRandom;
+
+/**
+ * Random numbers that can be reproduced, and that don't make threads wait on each other.
+ * Math.random() shares one synchronized generator and can't be seeded; instead, everything
+ * random here descends from a single master seed (the random.seed system property, or the clock):
+ * - agents and other long-lived objects split off their own generator;
+ * - an image operation takes a seed, and each row of the image then gets its own generator made from
+ *   that seed and the row number, so the result doesn't depend on how the rows are split among threads.
+ * Running again with the same master seed and the same operations gives the same images.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class RandomSource {
+	private static SplittableRandom master = new SplittableRandom(Long.getLong("random.seed", System.nanoTime()));
+
+	/**
+	 * Starts over from the given master seed.
+	 */
+	public static synchronized void setSeed(long seed) {
+		master = new SplittableRandom(seed);
+	}
+
+	/**
+	 * A new seed for an operation.
+	 */
+	public static synchronized long nextSeed() {
+		return master.nextLong();
+	}
+
+	/**
+	 * A new generator, independent of all the others, for one object to use (from one thread).
+	 */
+	public static synchronized SplittableRandom split() {
+		return master.split();
+	}
+
+	/**
+	 * The generator for one row (or other numbered piece) of an operation.
+	 * @param seed		the operation's seed
+	 * @param row			which row
+	 */
+	public static SplittableRandom forRow(long seed, long row) {
+		return new SplittableRandom(mix(seed + mix(row)));
+	}
+
+	/**
+	 * Scrambles the bits of a number (the MurmurHash3 finalizer), so that nearby seeds give unrelated generators.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+}
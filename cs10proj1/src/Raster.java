@@ -0,0 +1,134 @@
+import java.nio.ByteBuffer;
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+/**
+ * An 8-bit image held in a plain Java byte array, so that filters can work on the pixels
+ * without going through CvMat.get/put (each of which makes a new buffer view and goes through a double).
+ * The values are interleaved like in the CvMat (BGR for color images), row after row,
+ * so value (i,j,c) is at index i*stride + j*channels + c.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class Raster {
+	public final int rows, cols, channels;	// dimensions
+	public final int stride;								// number of bytes per row (cols*channels; no padding)
+	public final byte[] data;								// the pixel values
+
+	/**
+	 * Creates a blank (all 0) raster.
+	 * @param rows			number of rows
+	 * @param cols			number of columns
+	 * @param channels	number of color channels
+	 */
+	public Raster(int rows, int cols, int channels) {
+		this.rows = rows;
+		this.cols = cols;
+		this.channels = channels;
+		stride = cols * channels;
+		data = new byte[rows * stride];
+	}
+
+	/**
+	 * Creates a blank raster of the same dimensions as this one.
+	 */
+	public Raster blankCopy() {
+		return new Raster(rows, cols, channels);
+	}
+
+	/**
+	 * Creates a raster holding the same pixel values as this one.
+	 */
+	public Raster copy() {
+		Raster r = blankCopy();
+		System.arraycopy(data, 0, r.data, 0, data.length);
+		return r;
+	}
+
+	/**
+	 * Reads all the pixels of an 8-bit image in one pass.
+	 * @param mat		the image
+	 * @return			a raster holding a copy of its pixels
+	 */
+	public static Raster fromMat(CvMat mat) {
+		return fromMat(mat, null);
+	}
+
+	/**
+	 * Reads all the pixels of an 8-bit image in one pass, into an existing raster if it's the right size.
+	 * @param mat		the image
+	 * @param into	raster to overwrite (or null)
+	 * @return			into, or a new raster if it isn't the same size as the image
+	 */
+	public static Raster fromMat(CvMat mat, Raster into) {
+		Raster r = into != null && into.rows == mat.rows() && into.cols == mat.cols() && into.channels == mat.channels()
+				? into : new Raster(mat.rows(), mat.cols(), mat.channels());
+		ByteBuffer buf = mat.getByteBuffer();
+		// Rows in the CvMat may be padded out to step() bytes, so copy one row at a time.
+		for (int i = 0; i < r.rows; i++) {
+			buf.position(i * mat.step());
+			buf.get(r.data, i * r.stride, r.stride);
+		}
+		return r;
+	}
+
+	/**
+	 * Writes all the pixels back into an 8-bit image of the same dimensions, in one pass.
+	 * @param mat		the image to be overwritten
+	 */
+	public void toMat(CvMat mat) {
+		ByteBuffer buf = mat.getByteBuffer();
+		for (int i = 0; i < rows; i++) {
+			buf.position(i * mat.step());
+			buf.put(data, i * stride, stride);
+		}
+	}
+
+	/**
+	 * Creates a new 8-bit image holding these pixels.
+	 */
+	public CvMat toMat() {
+		CvMat mat = CvMat.create(rows, cols, channels == 3 ? CV_8UC3 : CV_8UC1);
+		toMat(mat);
+		return mat;
+	}
+
+	/**
+	 * Index into data of a pixel's first channel.
+	 * @param i		row
+	 * @param j		column
+	 */
+	public int index(int i, int j) {
+		return i * stride + j * channels;
+	}
+
+	/**
+	 * Gets a value (0-255).
+	 * @param i		row
+	 * @param j		column
+	 * @param c		channel
+	 */
+	public int get(int i, int j, int c) {
+		return data[i * stride + j * channels + c] & 0xff;
+	}
+
+	/**
+	 * Sets a value, converting it to a byte the same way CvMat.put does for 8-bit images.
+	 * @param i		row
+	 * @param j		column
+	 * @param c		channel
+	 * @param v		new value
+	 */
+	public void put(int i, int j, int c, double v) {
+		data[i * stride + j * channels + c] = toByte(v);
+	}
+
+	/**
+	 * Converts a value to the byte CvMat.put would store for it in an 8-bit image:
+	 * truncated to an int, keeping the low 8 bits (so callers must constrain to 0-255 themselves).
+	 * @param v		value
+	 * @return		byte to store
+	 */
+	public static byte toByte(double v) {
+		return (byte) (int) v;
+	}
+}
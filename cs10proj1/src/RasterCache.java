@@ -0,0 +1,172 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+import static com.googlecode.javacv.cpp.opencv_core.*;
+
+/**
+ * Decoded images saved on disk, so that the next run of the program can skip decoding them
+ * (e.g., the slides for Slideshow and Thumbnails, which otherwise take most of the startup time).
+ * Each image gets a file in the directory given by the rastercache.dir system property (.rastercache by default),
+ * with a header saying which image file it came from (path, length, and modification time) and how big it is
+ * (rows, columns, channels), followed by the pixels, row after row. A file that matches the image is memory-mapped
+ * and its pixels copied into a new CvMat, one row at a time. (The CvMat can't just use the mapped pixels: its data
+ * is allocated by OpenCV, its rows may be padded, and it would have to keep the file mapped for as long as it lives.
+ * The copy is a memcpy-speed pass over memory, far less than the decoding it replaces.)
+ * If the image has changed since, the old pixels are still returned right away, and the image is decoded
+ * (and its file rewritten) in the background; the caller is told when that's done, so it can switch over.
+ * If there's no file yet, the image is decoded now, and the file written in the background.
+ * The length and modification time in the header are those from before the image was decoded, so if the image file
+ * changes while it's being decoded, the cache file is seen as out of date next time rather than taken for the new one.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class RasterCache {
+	private static final int magic = 0x52434348;	// "RCCH"
+	private static final File dir = new File(System.getProperty("rastercache.dir", ".rastercache"));
+	private static ExecutorService background;		// decodes and writes (one at a time, to stay out of the way)
+
+	/**
+	 * Told when an image that was out of date has been decoded again.
+	 */
+	public interface Listener {
+		/**
+		 * @param index		which of the images asked for it is
+		 * @param image		the up-to-date image
+		 */
+		void updated(int index, CvMat image);
+	}
+
+	/**
+	 * Loads images, from their cached pixels if possible (see above).
+	 * @param filenames		the image files
+	 * @param listener		told (in a background thread) about any images that were out of date, once they've been decoded
+	 * @return						the images, with null for any that couldn't be loaded
+	 */
+	public static CvMat[] loadAll(String[] filenames, Listener listener) {
+		CvMat[] images = new CvMat[filenames.length];
+		for (int k = 0; k < filenames.length; k++) {
+			images[k] = load(filenames[k], k, listener);
+		}
+		return images;
+	}
+
+	/**
+	 * Loads one image (see loadAll).
+	 */
+	private static CvMat load(final String filename, final int index, final Listener listener) {
+		final File source = new File(filename).getAbsoluteFile();
+		final File cached = cacheFile(source);
+		try (RandomAccessFile in = new RandomAccessFile(cached, "r")) {
+			if (in.readInt() == magic && in.readUTF().equals(source.getPath())) {
+				long length = in.readLong(), modified = in.readLong();
+				CvMat image = read(in);
+				if (length != source.length() || modified != source.lastModified()) {
+					// Out of date: use it for now, and bring it up to date.
+					submit(new Runnable() {
+						public void run() {
+							long length = source.length(), modified = source.lastModified();
+							CvMat fresh = ImageCache.load(filename);
+							if (fresh != null) {
+								write(source, length, modified, cached, fresh);
+								listener.updated(index, fresh);
+							}
+						}
+					});
+				}
+				return image;
+			}
+		}
+		catch (IOException e) {
+			// No file, or a bad one; decode after all.
+		}
+		final long length = source.length(), modified = source.lastModified();
+		final CvMat image = ImageCache.load(filename);
+		if (image != null) {
+			final CvMat copy = image.clone();	// in case the caller modifies the image before it's written
+			submit(new Runnable() {
+				public void run() {
+					write(source, length, modified, cached, copy);
+				}
+			});
+		}
+		return image;
+	}
+
+	/**
+	 * Which file caches an image file.
+	 */
+	private static File cacheFile(File source) {
+		return new File(dir, source.getName() + "-" + Integer.toHexString(source.getPath().hashCode()) + ".raster");
+	}
+
+	/**
+	 * Reads the dimensions, and then maps the pixels and copies them into a new CvMat.
+	 */
+	private static CvMat read(RandomAccessFile in) throws IOException {
+		int rows = in.readInt(), cols = in.readInt(), channels = in.readInt();
+		int stride = cols * channels;
+		long start = in.getFilePointer();
+		if (in.length() < start + (long) rows * stride) throw new IOException("truncated");
+		ByteBuffer pixels = in.getChannel().map(FileChannel.MapMode.READ_ONLY, start, (long) rows * stride);
+		CvMat image = CvMat.create(rows, cols, channels == 3 ? CV_8UC3 : CV_8UC1);
+		ByteBuffer buf = image.getByteBuffer();
+		// Rows in the CvMat may be padded out to step() bytes, so copy one row at a time.
+		for (int i = 0; i < rows; i++) {
+			pixels.limit((i + 1) * stride).position(i * stride);
+			buf.position(i * image.step());
+			buf.put(pixels);
+		}
+		return image;
+	}
+
+	/**
+	 * Writes the cache file for an image (to a temporary file first, so the file is never seen half-written).
+	 * @param length		the image file's length, before it was decoded
+	 * @param modified	its modification time, likewise
+	 */
+	private static void write(File source, long length, long modified, File cached, CvMat image) {
+		try {
+			dir.mkdirs();
+			File tmp = File.createTempFile("raster", ".tmp", dir);
+			try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+				out.writeInt(magic);
+				out.writeUTF(source.getPath());
+				out.writeLong(length);
+				out.writeLong(modified);
+				out.writeInt(image.rows());
+				out.writeInt(image.cols());
+				out.writeInt(image.channels());
+				Raster r = Raster.fromMat(image);
+				out.write(r.data);
+			}
+			Files.move(tmp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			System.out.println("couldn't cache " + source + ": " + e);
+		}
+	}
+
+	/**
+	 * Runs a task in the background.
+	 */
+	private static synchronized void submit(Runnable task) {
+		if (background == null) {
+			background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "RasterCache");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		background.execute(task);
+	}
+}
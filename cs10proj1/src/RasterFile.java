@@ -0,0 +1,126 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An 8-bit image kept in a raw file rather than in memory, for images too big for the heap.
+ * The file is a 16-byte header (the magic number, then rows, columns, and channels, as big-endian ints)
+ * followed by the pixel values laid out exactly as in Raster.data.
+ * Strips of rows are read and written through memory mappings of just those rows,
+ * so only the strip being worked on needs to be in memory.
+ * A file that's opened (rather than created) is read-only: it's opened and mapped just for reading.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class RasterFile {
+	private static final int magic = 0x52415354;	// "RAST"
+	private static final int headerBytes = 16;
+
+	public final int rows, cols, channels;	// dimensions
+	public final int stride;								// number of bytes per row
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private final boolean writable;					// created, rather than opened
+
+	private RasterFile(RandomAccessFile file, boolean writable, int rows, int cols, int channels) {
+		this.file = file;
+		this.writable = writable;
+		this.rows = rows;
+		this.cols = cols;
+		this.channels = channels;
+		stride = cols * channels;
+		channel = file.getChannel();
+	}
+
+	/**
+	 * Creates a new file for a (blank) image of the given dimensions, replacing any existing one.
+	 */
+	public static RasterFile create(File f, int rows, int cols, int channels) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(f, "rw");
+		file.setLength(0);
+		file.setLength(headerBytes + (long) rows * cols * channels);
+		file.writeInt(magic);
+		file.writeInt(rows);
+		file.writeInt(cols);
+		file.writeInt(channels);
+		return new RasterFile(file, true, rows, cols, channels);
+	}
+
+	/**
+	 * Opens an existing file, for reading only.
+	 */
+	public static RasterFile open(File f) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+		if (file.length() < headerBytes || file.readInt() != magic) {
+			file.close();
+			throw new IOException(f + " isn't a raster file");
+		}
+		int rows = file.readInt(), cols = file.readInt(), channels = file.readInt();
+		if (file.length() < headerBytes + (long) rows * cols * channels) {
+			file.close();
+			throw new IOException(f + " is truncated");
+		}
+		return new RasterFile(file, false, rows, cols, channels);
+	}
+
+	/**
+	 * Maps rows from (inclusive) to to (exclusive).
+	 */
+	private MappedByteBuffer map(int from, int to) throws IOException {
+		FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+		return channel.map(mode, headerBytes + (long) from * stride, (long) (to - from) * stride);
+	}
+
+	/**
+	 * Reads rows of the image into rows of a raster (of the same width).
+	 * @param from		first row of the image to read (inclusive)
+	 * @param to			last row (exclusive)
+	 * @param r				where to put them
+	 * @param at			row of r to put the first one in
+	 */
+	public void read(int from, int to, Raster r, int at) throws IOException {
+		if (from >= to) return;
+		map(from, to).get(r.data, at * r.stride, (to - from) * stride);
+	}
+
+	/**
+	 * Writes rows of a raster (of the same width) into rows of the image.
+	 * @param r				where the rows are
+	 * @param at			row of r to start with
+	 * @param from		first row of the image to write (inclusive)
+	 * @param to			last row (exclusive)
+	 */
+	public void write(Raster r, int at, int from, int to) throws IOException {
+		if (!writable) throw new IOException("raster file was opened read-only");
+		if (from >= to) return;
+		map(from, to).put(r.data, at * r.stride, (to - from) * stride);
+	}
+
+	/**
+	 * Reads the whole image into memory (so only for images that fit).
+	 */
+	public Raster toRaster() throws IOException {
+		Raster r = new Raster(rows, cols, channels);
+		read(0, rows, r, 0);
+		return r;
+	}
+
+	/**
+	 * Creates a file holding the pixels of a raster.
+	 */
+	public static RasterFile fromRaster(Raster r, File f) throws IOException {
+		RasterFile rf = create(f, r.rows, r.cols, r.channels);
+		rf.write(r, 0, 0, r.rows);
+		return rf;
+	}
+
+	/**
+	 * Makes sure everything written is on disk, and closes the file.
+	 */
+	public void close() throws IOException {
+		if (writable) channel.force(false);
+		file.close();
+	}
+}
@@ -1,7 +1,7 @@
 import java.awt.*;
+import java.util.SplittableRandom;
 import javax.swing.*;
 import static com.googlecode.javacv.cpp.opencv_core.*;
-import static com.googlecode.javacv.cpp.opencv_highgui.*;
 
 /**
  * Custom rendering of an image, by drawing "pixels"
@@ -11,6 +11,7 @@ import static com.googlecode.javacv.cpp.opencv_highgui.*;
 public class Render extends JFrame {
 	private CvMat image;		// what to display and interact with
 	private Canvas canvas;	// our component for handling the graphics
+	private long seed = RandomSource.nextSeed();	// for pointillism, so that every repaint draws the same points
 
 	private static final int pixelSize = 20;	// size of the objects representing the image
 
@@ -19,7 +20,7 @@ public class Render extends JFrame {
 		super("Image Interaction");
 
 		// Read an image and make sure it was successfully loaded.
-		image = cvLoadImageM("img/dart0.jpg");
+		image = ImageCache.load("img/dart0.jpg");
 		if (image == null) {
 			System.out.println("image not found!");
 			System.exit(1);
@@ -42,9 +43,11 @@ public class Render extends JFrame {
 
 	/**
 	 * Renders the image as a set of rectangles tiling the window.
+	 * (Static, without the window, so it can also be benchmarked.)
+	 * @param image
 	 * @param g
 	 */
-	private void mosaic(Graphics g) {
+	public static void mosaic(CvMat image, Graphics g) {
 		// Usual loops, but step by "pixel" size and draw a rectangle of the appropriate color.
 		// Also note <=, to get that last rectangle.
 		for (int i = 0; i <= image.rows() - pixelSize; i += pixelSize) {
@@ -61,16 +64,19 @@ public class Render extends JFrame {
 
 	/**
 	 * Renders the image as a set of ellipses at random positions.
+	 * @param image
 	 * @param g
+	 * @param seed		random seed (see RandomSource), so that every repaint draws the same points
 	 */
-	private void pointillism(Graphics g) {
+	public static void pointillism(CvMat image, Graphics g, long seed) {
 		// Draw some random number of points determined by the image and "pixel" sizes.
 		int numPoints = image.cols() * image.rows() / pixelSize;
+		SplittableRandom random = RandomSource.forRow(seed, 0);
 		for (int p=0; p<numPoints; p++) {
 			// Pick a random position and size
-			int i = (int) (Math.random() * image.rows());
-			int j = (int) (Math.random() * image.cols());
-			int s = (int) (Math.random() * pixelSize) + 1;
+			int i = (int) (random.nextDouble() * image.rows());
+			int j = (int) (random.nextDouble() * image.cols());
+			int s = (int) (random.nextDouble() * pixelSize) + 1;
 
 			// Draw an ellipse there, colored by the pixel's color
 			g.setColor(new Color((int)image.get(i,j,2), (int)image.get(i,j,1), (int)image.get(i,j,0)));
@@ -89,8 +95,8 @@ public class Render extends JFrame {
 		public void paintComponent(Graphics g) {
 			super.paintComponent(g);
 			// Uncomment one or the other.
-			mosaic(g);
-			//pointillism(g);
+			mosaic(image, g);
+			//pointillism(image, g, seed);
 		}
 	}
 
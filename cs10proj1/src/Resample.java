@@ -0,0 +1,351 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+
+/**
+ * Resizing images, e.g., so that a mixin of any size can be blended with the image being processed.
+ * Resizing is bilinear: each result pixel is interpolated from the 4 source pixels around the spot it maps to
+ * (lining up pixel centers, so a same-size "resize" is an exact copy).
+ * For shrinking a lot (e.g., thumbnails), where that would skip over most of the source pixels and alias,
+ * there's also area averaging: each result pixel is the average of the source pixels its area covers.
+ * Since the same mixin tends to be blended again and again at the same size, resized images are cached,
+ * keyed by the source image (itself, not its contents, which are assumed not to change) and the target size;
+ * least recently used ones are dropped once they total more than the resample.bytes system property (64MB by default).
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class Resample {
+	private static final long maxBytes = Long.getLong("resample.bytes", 64L << 20);
+	private static LinkedHashMap<Key, Raster> cache = new LinkedHashMap<Key, Raster>(16, 0.75f, true);	// in access order
+	private static long bytes;		// total size of the cached rasters
+	private static final VarHandle longs = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);	// for reading 8 bytes at once
+	private static final long evenBytes = 0x00ff00ff00ff00ffL;	// bytes 0, 2, 4, and 6 of a long, each in a 16-bit lane
+	private static final int maxWhole = 257;	// the most rows whose values can be added up in 16 bits (257 * 255 = 65535)
+	private static final int fixedBits = 22;	// fraction bits in fixed-point weights (so a weighted average of values up to 255 fits in an int)
+
+	/**
+	 * Which image, at what size.
+	 */
+	private static class Key {
+		final CvMat source;
+		final int rows, cols;
+
+		Key(CvMat source, int rows, int cols) {
+			this.source = source;
+			this.rows = rows;
+			this.cols = cols;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return k.source == source && k.rows == rows && k.cols == cols;
+		}
+
+		public int hashCode() {
+			return (System.identityHashCode(source) * 31 + rows) * 31 + cols;
+		}
+	}
+
+	/**
+	 * The pixels of an image resized to the given dimensions, computed the first time they're asked for.
+	 * The result is shared, so must not be modified.
+	 * @param source		the image
+	 * @param rows			height wanted
+	 * @param cols			width wanted
+	 */
+	public static synchronized Raster cached(CvMat source, int rows, int cols) {
+		Key key = new Key(source, rows, cols);
+		Raster r = cache.get(key);
+		if (r == null) {
+			Raster src = Raster.fromMat(source);
+			r = src.rows == rows && src.cols == cols ? src : bilinear(src, rows, cols);
+			cache.put(key, r);
+			bytes += r.data.length;
+			// Drop the least recently used ones while over budget (but always keep the new one).
+			Iterator<Map.Entry<Key, Raster>> it = cache.entrySet().iterator();
+			while (bytes > maxBytes && cache.size() > 1) {
+				bytes -= it.next().getValue().data.length;
+				it.remove();
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Resizes a raster by bilinear interpolation.
+	 * @param src		the raster
+	 * @param rows	new height
+	 * @param cols	new width
+	 * @return			a new raster
+	 */
+	public static Raster bilinear(final Raster src, int rows, int cols) {
+		final Raster dst = new Raster(rows, cols, src.channels);
+		final int ch = src.channels;
+		// Where each result column comes from: the source columns to the left and right, and how far toward the right one.
+		// (The same for every row, so worked out once.)
+		final int[] left = new int[cols], right = new int[cols];
+		final double[] fx = new double[cols];
+		for (int j = 0; j < cols; j++) {
+			double x = Math.max(0, Math.min(src.cols - 1, (j + 0.5) * src.cols / cols - 0.5));
+			left[j] = (int) x;
+			right[j] = Math.min(left[j] + 1, src.cols - 1);
+			fx[j] = x - left[j];
+		}
+		TileScheduler.forRows(dst, new TileScheduler.Band() {
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					double y = Math.max(0, Math.min(src.rows - 1, (i + 0.5) * src.rows / dst.rows - 0.5));
+					int top = (int) y, bottom = Math.min(top + 1, src.rows - 1);
+					double fy = y - top;
+					for (int j = 0; j < dst.cols; j++) {
+						int tl = src.index(top, left[j]), tr = src.index(top, right[j]);
+						int bl = src.index(bottom, left[j]), br = src.index(bottom, right[j]);
+						int q = dst.index(i, j);
+						for (int c = 0; c < ch; c++) {
+							double t = (src.data[tl + c] & 0xff) * (1 - fx[j]) + (src.data[tr + c] & 0xff) * fx[j];
+							double b = (src.data[bl + c] & 0xff) * (1 - fx[j]) + (src.data[br + c] & 0xff) * fx[j];
+							dst.data[q + c] = Raster.toByte(t * (1 - fy) + b * fy + 0.5);
+						}
+					}
+				}
+			}
+		});
+		return dst;
+	}
+
+	/**
+	 * How a line of source pixels is averaged down to a shorter line: for each result pixel, the source pixels
+	 * its area covers (one after another from the first), each weighted by how much of it is covered,
+	 * as a fraction of the result pixel's whole area (so the weights add up to 1).
+	 * The same for every row (or column), so worked out once.
+	 */
+	private static class Footprints {
+		final int[] first;			// for each result pixel, the first source pixel it covers
+		final int[] start;			// and where its weights start (with the next one's start marking the end)
+		final float[] weights;
+
+		Footprints(int n, int m) {
+			double scale = (double) n / m;		// source pixels per result pixel
+			first = new int[m];
+			start = new int[m + 1];
+			for (int j = 0; j < m; j++) {
+				first[j] = (int) (j * scale);
+				int last = Math.min(n, (int) Math.ceil((j + 1) * scale));
+				start[j + 1] = start[j] + Math.max(1, last - first[j]);
+			}
+			weights = new float[start[m]];
+			for (int j = 0; j < m; j++) {
+				double lo = j * scale, hi = (j + 1) * scale;
+				for (int k = start[j]; k < start[j + 1]; k++) {
+					int s = first[j] + k - start[j];
+					weights[k] = (float) ((Math.min(hi, s + 1) - Math.max(lo, s)) / scale);
+				}
+			}
+		}
+
+		/**
+		 * The weights divided by a number, in fixed point with fixedBits fraction bits, rounded
+		 * (for weighting sums of that many values).
+		 */
+		int[] fixed(int divisor) {
+			int[] w = new int[weights.length];
+			for (int k = 0; k < w.length; k++) {
+				w[k] = (int) Math.round(weights[k] * (double) (1 << fixedBits) / divisor);
+			}
+			return w;
+		}
+	}
+
+	/**
+	 * Resizes a raster by area averaging (a box filter), for shrinking it (see area below).
+	 * @param src		the raster
+	 * @param rows	new height (at most the old one)
+	 * @param cols	new width (at most the old one)
+	 * @return			a new raster
+	 */
+	public static Raster area(Raster src, int rows, int cols) {
+		return area(src, null, src.rows, src.cols, src.channels, rows, cols);
+	}
+
+	/**
+	 * Resizes an image by area averaging, as above, reading its rows as they're needed
+	 * (rather than first copying the whole thing into a raster).
+	 * @param src		the image
+	 * @param rows	new height (at most the old one)
+	 * @param cols	new width (at most the old one)
+	 * @return			a new raster
+	 */
+	public static Raster area(CvMat src, int rows, int cols) {
+		return area(null, src, src.rows(), src.cols(), src.channels(), rows, cols);
+	}
+
+	/**
+	 * Resizes either a raster or an image by area averaging.
+	 * Goes a result row at a time: adds up the weighted source rows it covers, and then, along those sums,
+	 * the weighted source columns that each result pixel covers.
+	 * When the sizes divide evenly, all the weights are 1, so that's done in ints: when each result row covers
+	 * a whole number of source rows (up to maxWhole), they're just added up (and divided by how many at the end), and when
+	 * the columns divide evenly too, each result value is a sum of ints and one division, exactly rounded.
+	 * The rows are added up 8 values at a time, as the 16-bit lanes of a pair of longs (one for the even-numbered values
+	 * and one for the odd), which takes a fraction of the time of adding them one by one.
+	 * @param raster				the source, if it's a raster (else null)
+	 * @param mat						the source, if it's an image (else null)
+	 * @param srcRows				its size
+	 * @param srcCols
+	 * @param ch						its number of channels
+	 * @param rows					new size
+	 * @param cols
+	 */
+	private static Raster area(final Raster raster, final CvMat mat, int srcRows, final int srcCols, final int ch, int rows, int cols) {
+		final Raster dst = new Raster(rows, cols, ch);
+		final Footprints fy = new Footprints(srcRows, rows), fx = new Footprints(srcCols, cols);
+		final int ky = srcRows % rows == 0 && srcRows / rows <= maxWhole ? srcRows / rows : 0;	// source rows per result row, if a whole number (else 0)
+		final int kx = srcCols % cols == 0 ? srcCols / cols : 0;		// likewise for columns
+		final int stride = srcCols * ch, step = mat != null ? mat.step() : stride;
+		final int[] wx = ky > 0 && kx == 0 ? fx.fixed(ky) : null;	// for averaging the columns of whole rows' sums
+		TileScheduler.forRows(rows, stride * srcRows / rows, new TileScheduler.Band() {
+			public void run(int from, int to) {
+				ByteBuffer buf = mat != null ? mat.getByteBuffer() : null;	// (a view of its own, for this band)
+				byte[] px = mat != null ? new byte[stride] : raster.data;		// where the source row is
+				int[] counts = new int[ky > 0 ? stride : 0];		// the result row's source rows added up, if they're all weight 1
+				long[] even = new long[counts.length / 8], odd = new long[even.length];	// as they're being added up (see addRow)
+				float[] sums = new float[ky > 0 ? 0 : stride];	// else weighted and added up
+				for (int i = from; i < to; i++) {
+					if (ky > 0) {
+						Arrays.fill(counts, 0);
+						Arrays.fill(even, 0);
+						Arrays.fill(odd, 0);
+					}
+					else {
+						Arrays.fill(sums, 0);
+					}
+					for (int k = fy.start[i]; k < fy.start[i + 1]; k++) {
+						int s = fy.first[i] + k - fy.start[i], p = s * stride;
+						if (buf != null) {
+							buf.position(s * step);
+							buf.get(px, 0, stride);
+							p = 0;
+						}
+						if (ky > 0) {
+							addRow(px, p, even, odd, counts);
+						}
+						else {
+							float w = fy.weights[k];
+							for (int q = 0; q < stride; q++) sums[q] += w * (px[p + q] & 0xff);
+						}
+					}
+					if (ky > 0) unpack(even, odd, counts);
+					if (kx > 0 && ky > 0) {
+						averageBlocks(counts, kx, ky, ch, dst.data, i * dst.stride, dst.cols);
+					}
+					else if (ky > 0) {
+						averageColumns(counts, wx, fx, ch, dst.data, i * dst.stride, dst.cols);
+					}
+					else {
+						averageColumns(sums, fx, ch, dst.data, i * dst.stride, dst.cols);
+					}
+				}
+			}
+		});
+		return dst;
+	}
+
+	/**
+	 * Adds a row of values to the running sums: all but the last few (past a multiple of 8) 8 at a time, into the 16-bit lanes
+	 * of even (values 0, 2, 4, and 6 of each 8) and odd (1, 3, 5, and 7), and those last few into counts.
+	 * @param px			the values
+	 * @param p				where the row starts
+	 */
+	private static void addRow(byte[] px, int p, long[] even, long[] odd, int[] counts) {
+		for (int w = 0; w < even.length; w++) {
+			long x = (long) longs.get(px, p + 8 * w);
+			even[w] += x & evenBytes;
+			odd[w] += (x >>> 8) & evenBytes;
+		}
+		for (int q = even.length * 8; q < counts.length; q++) {
+			counts[q] += px[p + q] & 0xff;
+		}
+	}
+
+	/**
+	 * Copies the sums in the lanes of even and odd (see addRow) into counts.
+	 */
+	private static void unpack(long[] even, long[] odd, int[] counts) {
+		for (int w = 0, q = 0; w < even.length; w++) {
+			long e = even[w], o = odd[w];
+			for (int lane = 0; lane < 64; lane += 16, q += 2) {
+				counts[q] = (int) (e >>> lane) & 0xffff;
+				counts[q + 1] = (int) (o >>> lane) & 0xffff;
+			}
+		}
+	}
+
+	/**
+	 * Averages each run of kx columns of rows of values that have been added up ky at a time, into a result row.
+	 * @param counts	the sums, kx*ch for each result pixel
+	 * @param out			the result
+	 * @param q				where the result row starts in it
+	 * @param cols		how many result pixels
+	 */
+	private static void averageBlocks(int[] counts, int kx, int ky, int ch, byte[] out, int q, int cols) {
+		int n = kx * ky;
+		for (int j = 0, p0 = 0; j < cols; j++, p0 += kx * ch) {
+			for (int c = 0; c < ch; c++) {
+				int t = 0;
+				for (int k = 0, p = p0 + c; k < kx; k++, p += ch) t += counts[p];
+				out[q++] = (byte) ((t + n / 2) / n);
+			}
+		}
+	}
+
+	/**
+	 * Averages the columns of rows of values that have been added up (unweighted), into a result row.
+	 * In ints, rather than converting each sum to a float, which costs more than the rest put together.
+	 * @param counts	the sums
+	 * @param weights	the column weights, in fixed point, already divided by how many rows were added up (see Footprints.fixed)
+	 * @param fx			which columns each result pixel covers
+	 * @param out			the result
+	 * @param q				where the result row starts in it
+	 * @param cols		how many result pixels
+	 */
+	private static void averageColumns(int[] counts, int[] weights, Footprints fx, int ch, byte[] out, int q, int cols) {
+		for (int j = 0; j < cols; j++) {
+			for (int c = 0; c < ch; c++) {
+				int v = 0;
+				for (int k = fx.start[j], p = fx.first[j] * ch + c; k < fx.start[j + 1]; k++, p += ch) {
+					v += weights[k] * counts[p];
+				}
+				int b = (v + (1 << fixedBits - 1)) >> fixedBits;
+				out[q++] = (byte) (b > 255 ? 255 : b);
+			}
+		}
+	}
+
+	/**
+	 * Averages the columns of rows of values that have been weighted and added up, into a result row.
+	 * @param sums		the weighted sums
+	 * @param fx			which columns each result pixel covers, and how much
+	 * @param out			the result
+	 * @param q				where the result row starts in it
+	 * @param cols		how many result pixels
+	 */
+	private static void averageColumns(float[] sums, Footprints fx, int ch, byte[] out, int q, int cols) {
+		for (int j = 0; j < cols; j++) {
+			for (int c = 0; c < ch; c++) {
+				float v = 0;
+				for (int k = fx.start[j], p = fx.first[j] * ch + c; k < fx.start[j + 1]; k++, p += ch) {
+					v += fx.weights[k] * sums[p];
+				}
+				int b = (int) (v + 0.5f);
+				out[q++] = (byte) (b > 255 ? 255 : b);
+			}
+		}
+	}
+}
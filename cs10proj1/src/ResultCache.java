@@ -0,0 +1,104 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of commands that always do the same thing to the same image (see ImageProcessing.dispatch),
+ * so that doing them again, e.g., after reverting to the original and starting over along the same lines, is just a copy.
+ * Images are identified by version numbers rather than by their pixels: the original gets a new version,
+ * and the result of a command on a version always gets the same version (whether it was computed or found here),
+ * so a whole sequence of commands finds its results one after another. Anything else that changes the image
+ * (e.g., noise, with its new random numbers each time) gives it a new version, never seen before.
+ * A result is keyed by the version it was computed from and the command, along with whatever settings it depends on.
+ * Least recently used results are dropped once they total more than the resultcache.bytes system property (64MB by default);
+ * the versions they were given are remembered, though, so that results further along a sequence can still be found.
+ * Only so many versions are remembered (the resultcache.versions system property, 65536 by default), least recently used
+ * dropped first; once a version is forgotten, the command gets a new one when it's done again, and the results kept under
+ * the old one can no longer be found, so they just age out of the cache.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class ResultCache {
+	private static final long maxBytes = Long.getLong("resultcache.bytes", 64L << 20);
+	private static LinkedHashMap<String, Raster> cache = new LinkedHashMap<String, Raster>(16, 0.75f, true);	// in access order
+	private static final int maxVersions = Integer.getInteger("resultcache.versions", 65536);
+	private static LinkedHashMap<String, Long> versions = new LinkedHashMap<String, Long>(16, 0.75f, true);	// of results computed, in access order
+	private static long lastVersion;		// the most recently handed out version
+	private static long bytes;					// total size of the cached results
+	private static int hits, misses;		// how many lookups did and didn't find the result
+
+	/**
+	 * A version number that hasn't been used before, for an image that's new or changed unpredictably.
+	 */
+	public static synchronized long newVersion() {
+		return ++lastVersion;
+	}
+
+	/**
+	 * The version of the result of a command on an image.
+	 * @param input		the image's version
+	 * @param op			the command (with its settings)
+	 */
+	public static synchronized long version(long input, String op) {
+		String key = input + " " + op;
+		Long v = versions.get(key);
+		if (v == null) {
+			v = ++lastVersion;
+			versions.put(key, v);
+			// Forget the least recently used ones while over the limit.
+			Iterator<String> it = versions.keySet().iterator();
+			while (versions.size() > maxVersions) {
+				it.next();
+				it.remove();
+			}
+		}
+		return v;
+	}
+
+	/**
+	 * Finds the result of a command on an image, if it's been kept.
+	 * The result is shared, so must not be modified.
+	 * @param input		the image's version
+	 * @param op			the command (with its settings)
+	 * @return				the result, or null
+	 */
+	public static synchronized Raster get(long input, String op) {
+		Raster r = cache.get(input + " " + op);
+		if (r != null) hits++;
+		else misses++;
+		return r;
+	}
+
+	/**
+	 * Keeps the result of a command on an image.
+	 * @param input		the image's version
+	 * @param op			the command (with its settings)
+	 * @param result	the result (which must not be modified afterwards)
+	 */
+	public static synchronized void put(long input, String op, Raster result) {
+		Raster old = cache.put(input + " " + op, result);
+		if (old != null) bytes -= old.data.length;
+		bytes += result.data.length;
+		// Drop the least recently used ones while over budget (but always keep the new one).
+		Iterator<Map.Entry<String, Raster>> it = cache.entrySet().iterator();
+		while (bytes > maxBytes && cache.size() > 1) {
+			bytes -= it.next().getValue().data.length;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Empties the cache (but keeps counting, and keeps the versions, within their limit).
+	 */
+	public static synchronized void clear() {
+		cache.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * A summary of the cache's use, for display.
+	 */
+	public static synchronized String summary() {
+		return "result cache: " + hits + " hits, " + misses + " misses, " + cache.size() + " results, " + (bytes >> 10) + "KB";
+	}
+}
@@ -3,7 +3,6 @@ import java.awt.event.*;
 import javax.swing.*;
 import java.util.ArrayList;
 import com.googlecode.javacv.cpp.opencv_core.CvMat;
-import static com.googlecode.javacv.cpp.opencv_highgui.*;
 
 /**
  * Presentation of a list of images.
@@ -20,14 +19,30 @@ public class Slideshow extends JFrame {
 		super("SlideShow");
 
 		// Read the images, named dart0.jpg ... dart8.jpg, and store in list.
+		// Their pixels are kept in the RasterCache, so only slides that have changed need decoding
+		// (and those are shown as they were, until they're decoded).
+		String[] names = new String[9];
+		for (int i = 0; i <= 8; i++) names[i] = "img/dart" + i + ".jpg";
 		images = new ArrayList<CvMat>();
 		for (int i = 0; i <= 8; i++) {
-			CvMat image = cvLoadImageM("img/dart" + i + ".jpg");
-			if (image == null) {
+			images.add(null);
+		}
+		CvMat[] loaded = RasterCache.loadAll(names, new RasterCache.Listener() {
+			public void updated(final int index, final CvMat image) {
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						images.set(index, image);
+						canvas.repaint();
+					}
+				});
+			}
+		});
+		for (int i = 0; i <= 8; i++) {
+			if (loaded[i] == null) {
 				System.out.println("image " + i + " not found!");
 				System.exit(1);
 			}
-			images.add(image);
+			images.set(i, loaded[i]);
 		}
 
 		// Create our graphics-handling component.
@@ -0,0 +1,159 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+import static com.googlecode.javacv.cpp.opencv_highgui.*;
+
+/**
+ * ImageProcessing for images bigger than the heap:
+ *   java Streaming <input> "<script>" <output>
+ * where the script is as for Batch (e.g., "g d0.8 a3"), and the input and output are raw raster files (.raw, see RasterFile)
+ * or else ordinary image files (which are converted, and so must fit in memory).
+ * The image stays in the file; strips of rows are read in, run through the script, and written out, one after another.
+ * Neighborhood operations (blur, sharpen, scramble) need some rows above and below the strip; each strip is read
+ * with enough of these "halo" rows for all the operations in the script, and just its own rows are written back,
+ * so the result is the same as processing the whole image at once. (Except for the Gaussian blur, whose halo
+ * cuts off its never-quite-ending reach at 4 sigmas, and which can come out 1 off near where strips meet.) Flipping needs rows from the other end of the image,
+ * so it's done in a pass of its own, with the operations before and after it in passes writing to temporary files.
+ * Memory use depends only on the strip size (the stream.bytes system property, 4MB by default) and the halo.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class Streaming {
+	private static final String unsupported = "bijopstuUwx";	// blend (needs an equally huge mixin), revert, the interactive commands, those that turn rows into columns, and the border mode (wrapping needs the other end)
+
+	private int stripBytes;		// aim for strips of about this size (not counting halo)
+	private int strips;				// how many strips have been processed
+
+	public Streaming(int stripBytes) {
+		this.stripBytes = stripBytes;
+	}
+
+	/**
+	 * Runs a script over an image, writing the result to a new file.
+	 * @param in			the image
+	 * @param script	the commands
+	 * @param out			where to put the result
+	 * @return				the result
+	 */
+	public RasterFile process(RasterFile in, String[] script, File out) throws IOException {
+		// Split into passes, with each flip by itself.
+		ArrayList<ArrayList<String>> passes = new ArrayList<ArrayList<String>>();
+		ArrayList<String> pass = new ArrayList<String>();
+		for (String op : script) {
+			if (op.charAt(0) == 'f') {
+				if (!pass.isEmpty()) passes.add(pass);
+				pass = new ArrayList<String>();
+				pass.add(op);
+				passes.add(pass);
+				pass = new ArrayList<String>();
+			}
+			else {
+				pass.add(op);
+			}
+		}
+		if (!pass.isEmpty() || passes.isEmpty()) passes.add(pass);
+
+		RasterFile src = in;
+		File srcFile = null;	// when src is a temporary file, which one
+		for (int p = 0; p < passes.size(); p++) {
+			boolean last = p == passes.size() - 1;
+			File f = last ? out : File.createTempFile("stream", ".raw", out.getAbsoluteFile().getParentFile());
+			RasterFile dst = RasterFile.create(f, in.rows, in.cols, in.channels);
+			run(src, passes.get(p), dst);
+			if (srcFile != null) {
+				src.close();
+				srcFile.delete();
+			}
+			src = dst;
+			srcFile = last ? null : f;
+		}
+		return src;
+	}
+
+	/**
+	 * Runs one pass of commands, strip by strip.
+	 */
+	private void run(RasterFile in, ArrayList<String> ops, RasterFile out) throws IOException {
+		// Everybody's random numbers must be the same from strip to strip.
+		long[] seeds = new long[ops.size()];
+		int halo = 0;
+		for (int k = 0; k < ops.size(); k++) {
+			seeds[k] = RandomSource.nextSeed();
+			halo += ImageProcessing.reach(ops.get(k));
+		}
+		boolean flip = ops.size() == 1 && ops.get(0).charAt(0) == 'f';
+		int stripRows = Math.max(1, stripBytes / in.stride);
+
+		Raster strip = null;	// reused while the strips are the same size
+		for (int from = 0; from < in.rows; from += stripRows) {
+			int to = Math.min(in.rows, from + stripRows);
+			// The rows to read: the strip plus halo, or for a flip, the mirror image of the strip.
+			int lo = flip ? in.rows - to : Math.max(0, from - halo);
+			int hi = flip ? in.rows - from : Math.min(in.rows, to + halo);
+			if (strip == null || strip.rows != hi - lo) {
+				strip = new Raster(hi - lo, in.cols, in.channels);
+			}
+			in.read(lo, hi, strip, 0);
+			ImageProcessing proc = new ImageProcessing(strip.toMat(), null, lo);
+			for (int k = 0; k < ops.size(); k++) {
+				proc.dispatch(ops.get(k), seeds[k]);
+			}
+			Raster result = Raster.fromMat(proc.getImage());
+			out.write(result, flip ? 0 : from - lo, from, to);
+			strips++;
+		}
+	}
+
+	/**
+	 * Opens an input file, converting it to a raw one (in the given directory) if it's an ordinary image.
+	 */
+	private static RasterFile open(String name, File dir) throws IOException {
+		if (name.endsWith(".raw")) return RasterFile.open(new File(name));
+		CvMat image = cvLoadImageM(name);
+		if (image == null) throw new IOException(name + " not found");
+		File f = File.createTempFile("stream", ".raw", dir);
+		f.deleteOnExit();
+		return RasterFile.fromRaster(Raster.fromMat(image), f);
+	}
+
+	/**
+	 * Processes an image file.
+	 * @param args		input file, script, output file
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.out.println("usage: java Streaming <input> \"<script>\" <output>");
+			System.exit(1);
+		}
+		String[] script = args[1].trim().split("\\s+");
+		for (String op : script) {
+			if (!ImageProcessing.isCommand(op) || unsupported.indexOf(op.charAt(0)) >= 0) {
+				System.out.println("Unknown operation " + op);
+				System.exit(1);
+			}
+		}
+		File outFile = new File(args[2]).getAbsoluteFile();
+		boolean raw = args[2].endsWith(".raw");
+		File out = raw ? outFile : File.createTempFile("stream", ".raw", outFile.getParentFile());
+		if (!raw) out.deleteOnExit();
+
+		long start = System.nanoTime();
+		RasterFile in = open(args[0], outFile.getParentFile());
+		for (String op : script) {
+			if (!ImageProcessing.fits(op, in.rows, in.cols)) {
+				System.out.println(op + " is too big for the image");
+				System.exit(1);
+			}
+		}
+		Streaming streaming = new Streaming(Integer.getInteger("stream.bytes", 4 << 20));
+		RasterFile result = streaming.process(in, script, out);
+		if (!raw) {
+			cvSaveImage(args[2], result.toRaster().toMat().asIplImage());
+		}
+		in.close();
+		result.close();
+		System.out.println(in.cols + "x" + in.rows + " in " + streaming.strips + " strips: "
+				+ String.format("%.2f", (System.nanoTime() - start) / 1e9) + "s");
+	}
+}
@@ -2,8 +2,8 @@ import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import com.googlecode.javacv.cpp.opencv_core.CvMat;
-import static com.googlecode.javacv.cpp.opencv_highgui.*;
 
 /**
  * Thumbnail display of a set of slides.
@@ -24,16 +24,41 @@ public class Thumbnails extends JFrame {
 		super("Thumbnails");
 
 		// Read the images, named dart0.jpg ... dart8.jpg, and store in list.
+		// Their pixels are kept in the RasterCache, so only slides that have changed need decoding
+		// (and those are shown as they were, until they're decoded).
+		String[] names = new String[9];
+		for (int i = 0; i <= 8; i++) names[i] = "img/dart" + i + ".jpg";
 		images = new ArrayList<CvMat>();
 		for (int i = 0; i <= 8; i++) 
 		{
-			CvMat image = cvLoadImageM("img/dart" + i + ".jpg");
-			if (image == null) 
+			images.add(null);
+		}
+		CvMat[] loaded = RasterCache.loadAll(names, new RasterCache.Listener() 
+		{
+			public void updated(final int index, final CvMat image) 
+			{
+				// (In this background thread, rather than holding up the GUI; the thumbnail size is worked out here too,
+				// since this can be called before createThumbs has set it.)
+				final CvMat thumb = scale(image, image.cols()/tcols, image.rows()/trows);
+				SwingUtilities.invokeLater(new Runnable() 
+				{
+					public void run() 
+					{
+						images.set(index, image);
+						thumbs.set(index, thumb);
+						canvas.repaint();
+					}
+				});
+			}
+		});
+		for (int i = 0; i <= 8; i++) 
+		{
+			if (loaded[i] == null) 
 			{
 				System.out.println("image " + i + " not found!");
 				System.exit(1);
 			}
-			images.add(image);
+			images.set(i, loaded[i]);
 		}
 		createThumbs();
 		thumbWidth = images.get(0).cols()/tcols;
@@ -56,41 +81,48 @@ public class Thumbnails extends JFrame {
 	}
 	
 	/**
-	 * Creates the thumbs list, with scaled-down versions of the images.
+	 * Creates the thumbs list, with scaled-down versions of the images (all scaled at once, on the TileScheduler).
 	 */
 	private void createThumbs() 
 	{
-		thumbs = new ArrayList<CvMat>();
 		thumbWidth = images.get(0).cols()/tcols;
 		thumbHeight = images.get(0).rows()/trows;
-		for (CvMat image : images) 
+		final CvMat[] scaled = new CvMat[images.size()];
+		// One image per band (each is well over a band's worth of bytes).
+		TileScheduler.forRows(scaled.length, images.get(0).rows() * images.get(0).cols() * 3, new TileScheduler.Band() 
 		{
-			thumbs.add(scale(image, 1.0/tcols, 1.0/trows)); // note use of 1.0 instead of 1, to force floating point
-		}
+			public void run(int from, int to) 
+			{
+				for (int k = from; k < to; k++) 
+				{
+					scaled[k] = scale(images.get(k));
+				}
+			}
+		});
+		thumbs = new ArrayList<CvMat>(Arrays.asList(scaled));
 	}
 
 	/**
-	 * Crude scaling of an image by a factor.
+	 * Scaling of an image to the thumbnail size.
 	 * @param image		image to scale
-	 * @param scaleC	how much to scale columns by (between 0 and 1)
-	 * @param scaleR	how much to scale rows by (between 0 and 1)
 	 * @return				scaled image
 	 */
-	private static CvMat scale(CvMat image, double scaleC, double scaleR) {
-		CvMat piece = CvMat.create(thumbHeight, thumbWidth, image.type());
-		for(int i = 0; i < image.cols(); i++) //800
-		{
-			for(int j = 0; j < image.rows(); j++) //600
-			{
-				for(int c = 0; c < 3; c++)
-				{
-					int temp1 = Math.min((int)(j*scaleR),thumbHeight-1);
-					int temp2 = Math.min((int)(i*scaleC),thumbWidth-1);
-					piece.put(temp1,temp2,c,image.get(j,i,c));
-				}
-			}
-		}
-		return piece;
+	private static CvMat scale(CvMat image) {
+		return scale(image, thumbWidth, thumbHeight);
+	}
+
+	/**
+	 * Scaling of an image to the given size.
+	 * Each thumbnail pixel is the average of the image pixels it covers (see Resample.area),
+	 * rather than just one of them, which would make edges jagged and fine detail shimmer.
+	 * (Doesn't depend on the thumbnail setup, so it can also be benchmarked.)
+	 * @param image				image to scale
+	 * @param thumbWidth	width of scaled image
+	 * @param thumbHeight	height of scaled image
+	 * @return						scaled image
+	 */
+	public static CvMat scale(CvMat image, int thumbWidth, int thumbHeight) {
+		return Resample.area(image, thumbHeight, thumbWidth).toMat();
 	}
 
 	/**
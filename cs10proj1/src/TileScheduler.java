@@ -0,0 +1,151 @@
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs image operations in parallel, by splitting the rows into bands and handing the bands
+ * to a fork/join pool. Each band writes only its own rows of the result, and reads whatever
+ * it needs (including "halo" rows above and below, for neighborhood operations) from an image
+ * that nobody is writing, so the result is the same as doing the rows in order.
+ * The number of threads can be set with the tiles.threads system property or setParallelism;
+ * with 1 thread, bands are just run one after the other in the calling thread.
+ * A thread can ask to be told which threads run its bands (see track), e.g., for OpStats, and can make its
+ * operations stoppable partway through (see cancellable), e.g., for ImageProcessing's background refinement.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class TileScheduler {
+	private static final int bandBytes = 64 * 1024;		// setup: aim for bands that fit in cache
+	private static volatile ForkJoinPool pool;			// the worker threads (null when sequential)
+	private static volatile int parallelism;				// how many threads
+	private static ThreadLocal<Set<Thread>> tracking = new ThreadLocal<Set<Thread>>();	// per calling thread, where to note the threads running its bands
+	private static ThreadLocal<AtomicBoolean> cancelling = new ThreadLocal<AtomicBoolean>();	// per calling thread, set to stop its bands
+
+	static {
+		setParallelism(Integer.getInteger("tiles.threads", Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * The work to do on a band of rows.
+	 */
+	public interface Band {
+		/**
+		 * Processes rows from (inclusive) to to (exclusive).
+		 */
+		void run(int from, int to);
+	}
+
+	/**
+	 * Sets how many threads to use (1 for sequential).
+	 * Calls to forRows already under way finish on the old threads; later ones use the new.
+	 * (The old pool isn't shut down, since other threads may still be handing it bands; its threads
+	 * are daemons, and end on their own once they've been idle for a while.)
+	 * @param threads		number of threads
+	 */
+	public static synchronized void setParallelism(int threads) {
+		threads = Math.max(1, threads);
+		pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		parallelism = threads;
+	}
+
+	/**
+	 * How many threads are being used.
+	 */
+	public static int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Runs the band over all the rows of an image, in cache-sized bands, in parallel if possible;
+	 * returns once all the bands are done.
+	 * @param rows		number of rows in the image
+	 * @param stride	number of bytes per row (used to size the bands)
+	 * @param band		what to do on each band
+	 */
+	public static void forRows(int rows, int stride, Band band) {
+		int grain = Math.max(1, bandBytes / Math.max(1, stride));
+		ForkJoinPool p = pool;
+		Set<Thread> used = tracking.get();
+		AtomicBoolean cancel = cancelling.get();
+		if (p == null || rows <= grain) {
+			if (used != null) used.add(Thread.currentThread());
+			if (cancel == null) {
+				band.run(0, rows);
+			}
+			else {
+				// A band at a time, so as to be able to stop in between.
+				for (int from = 0; from < rows; from += grain) {
+					if (cancel.get()) throw new CancellationException();
+					band.run(from, Math.min(rows, from + grain));
+				}
+			}
+		}
+		else {
+			p.invoke(new Split(band, 0, rows, grain, used, cancel));
+		}
+	}
+
+	/**
+	 * Makes this thread's calls to forRows stoppable: once the flag is set, they throw a CancellationException
+	 * instead of starting any more bands (leaving the image partly done).
+	 * @param cancel		the flag, or null to stop checking
+	 * @return					the flag previously being checked, if any
+	 */
+	public static AtomicBoolean cancellable(AtomicBoolean cancel) {
+		AtomicBoolean previous = cancelling.get();
+		cancelling.set(cancel);
+		return previous;
+	}
+
+	/**
+	 * Starts (or stops) noting which threads run the bands of this thread's calls to forRows.
+	 * @param used		a thread-safe set to add the threads to, or null to stop
+	 * @return				the set previously being added to, if any
+	 */
+	public static Set<Thread> track(Set<Thread> used) {
+		Set<Thread> previous = tracking.get();
+		tracking.set(used);
+		return previous;
+	}
+
+	/**
+	 * Runs the band over all the rows of a raster (see forRows above).
+	 */
+	public static void forRows(Raster r, Band band) {
+		forRows(r.rows, r.stride, band);
+	}
+
+	/**
+	 * Recursively halves a range of rows until it's no bigger than the grain, and then runs the band on it.
+	 */
+	private static class Split extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Band band;
+		private final int from, to, grain;
+		private final Set<Thread> used;				// where to note the threads running bands (or null)
+		private final AtomicBoolean cancel;		// set to stop (or null)
+
+		Split(Band band, int from, int to, int grain, Set<Thread> used, AtomicBoolean cancel) {
+			this.band = band;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.used = used;
+			this.cancel = cancel;
+		}
+
+		protected void compute() {
+			if (cancel != null && cancel.get()) throw new CancellationException();
+			if (to - from <= grain) {
+				if (used != null) used.add(Thread.currentThread());
+				band.run(from, to);
+			}
+			else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Split(band, from, mid, grain, used, cancel), new Split(band, mid, to, grain, used, cancel));
+			}
+		}
+	}
+}
@@ -0,0 +1,236 @@
+import java.nio.ByteBuffer;
+import com.googlecode.javacv.cpp.opencv_core.CvMat;
+
+/**
+ * Geometric transforms: flipping (upside down), mirroring (left to right), rotating by multiples of 90 degrees, and transposing.
+ * Flipping, mirroring, and rotating by 180 just move whole rows (reversing the order of the pixels in them),
+ * so they're done in place, a pair of rows at a time, right in the CvMat.
+ * Transposing and rotating by 90 or 270 turn rows into columns, so reading the source row by row means writing
+ * the result column by column, touching a different cache line for every pixel. Instead, they go a square tile at a time,
+ * small enough that the tile's rows in both images stay in the cache. A square image is transposed in place, by swapping
+ * across the diagonal; rotating it is transposing and then flipping or mirroring, also in place.
+ * All of them run bands of rows in parallel on the TileScheduler.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class Transforms {
+	private static final int tile = 32;		// setup: tile width and height, in pixels
+
+	/**
+	 * Flips an image upside down, in place.
+	 */
+	public static void flip(CvMat mat) {
+		swapRows(mat, false);
+	}
+
+	/**
+	 * Rotates an image by 180 degrees, in place.
+	 */
+	public static void rotate180(CvMat mat) {
+		swapRows(mat, true);
+	}
+
+	/**
+	 * Swaps each row in the top half of the image with its mirror image in the bottom half.
+	 * @param reverse		whether to also reverse the order of the pixels in each row
+	 */
+	private static void swapRows(final CvMat mat, final boolean reverse) {
+		final int rows = mat.rows(), step = mat.step(), ch = mat.channels(), n = mat.cols() * ch;
+		// Bands of the top half (including the middle row, if there is one, which gets swapped with itself).
+		TileScheduler.forRows((rows + 1) / 2, 2 * n, new TileScheduler.Band() {
+			public void run(int from, int to) {
+				ByteBuffer buf = mat.getByteBuffer();
+				byte[] a = new byte[n], b = new byte[n];
+				for (int i = from; i < to; i++) {
+					int i2 = rows - 1 - i;
+					buf.position(i * step);
+					buf.get(a);
+					buf.position(i2 * step);
+					buf.get(b);
+					if (reverse) {
+						reverse(a, 0, n, ch);
+						reverse(b, 0, n, ch);
+					}
+					buf.position(i * step);
+					buf.put(b);
+					buf.position(i2 * step);
+					buf.put(a);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Mirrors an image left to right, in place.
+	 */
+	public static void mirror(final CvMat mat) {
+		final int step = mat.step(), ch = mat.channels(), n = mat.cols() * ch;
+		TileScheduler.forRows(mat.rows(), n, new TileScheduler.Band() {
+			public void run(int from, int to) {
+				ByteBuffer buf = mat.getByteBuffer();
+				byte[] a = new byte[n];
+				for (int i = from; i < to; i++) {
+					buf.position(i * step);
+					buf.get(a);
+					reverse(a, 0, n, ch);
+					buf.position(i * step);
+					buf.put(a);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reverses the order of the pixels (but not the channels within them) in a run of n values starting at off.
+	 */
+	private static void reverse(byte[] px, int off, int n, int ch) {
+		for (int p = off, q = off + n - ch; p < q; p += ch, q -= ch) {
+			for (int c = 0; c < ch; c++) {
+				byte t = px[p + c];
+				px[p + c] = px[q + c];
+				px[q + c] = t;
+			}
+		}
+	}
+
+	/**
+	 * Flips a raster upside down, in place.
+	 */
+	public static void flip(final Raster r) {
+		TileScheduler.forRows((r.rows + 1) / 2, 2 * r.stride, new TileScheduler.Band() {
+			public void run(int from, int to) {
+				byte[] t = new byte[r.stride];
+				for (int i = from; i < to; i++) {
+					int p = r.index(i, 0), q = r.index(r.rows - 1 - i, 0);
+					System.arraycopy(r.data, p, t, 0, r.stride);
+					System.arraycopy(r.data, q, r.data, p, r.stride);
+					System.arraycopy(t, 0, r.data, q, r.stride);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Mirrors a raster left to right, in place.
+	 */
+	public static void mirror(final Raster r) {
+		TileScheduler.forRows(r, new TileScheduler.Band() {
+			public void run(int from, int to) {
+				for (int i = from; i < to; i++) {
+					reverse(r.data, r.index(i, 0), r.stride, r.channels);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Transposes a raster (swapping rows and columns): in place if it's square, else into a new raster.
+	 * @return		the transposed raster (the same one, if square)
+	 */
+	public static Raster transpose(Raster r) {
+		if (r.rows == r.cols) {
+			transposeSquare(r);
+			return r;
+		}
+		// result (i,j) = r (j,i)
+		return remap(r, r.cols, r.rows, 0, r.channels, r.stride);
+	}
+
+	/**
+	 * Rotates a raster 90 degrees clockwise: in place if it's square, else into a new raster.
+	 * @return		the rotated raster (the same one, if square)
+	 */
+	public static Raster rotate90(Raster r) {
+		if (r.rows == r.cols) {
+			transposeSquare(r);
+			mirror(r);
+			return r;
+		}
+		// result (i,j) = r (rows-1-j, i)
+		return remap(r, r.cols, r.rows, (r.rows - 1) * r.stride, r.channels, -r.stride);
+	}
+
+	/**
+	 * Rotates a raster 270 degrees clockwise (90 counterclockwise): in place if it's square, else into a new raster.
+	 * @return		the rotated raster (the same one, if square)
+	 */
+	public static Raster rotate270(Raster r) {
+		if (r.rows == r.cols) {
+			transposeSquare(r);
+			flip(r);
+			return r;
+		}
+		// result (i,j) = r (j, cols-1-i)
+		return remap(r, r.cols, r.rows, (r.cols - 1) * r.channels, -r.channels, r.stride);
+	}
+
+	/**
+	 * Copies pixels into a new raster, tile by tile, where the source pixel for result (i,j) is at
+	 * index base + i*di + j*dj in the source.
+	 * @param src		source raster
+	 * @param rows	result height
+	 * @param cols	result width
+	 */
+	private static Raster remap(final Raster src, int rows, int cols, final int base, final int di, final int dj) {
+		final Raster dst = new Raster(rows, cols, src.channels);
+		final int ch = src.channels;
+		final byte[] s = src.data, d = dst.data;
+		TileScheduler.forRows(dst, new TileScheduler.Band() {
+			public void run(int from, int to) {
+				for (int i0 = from; i0 < to; i0 += tile) {
+					int i1 = Math.min(to, i0 + tile);
+					for (int j0 = 0; j0 < dst.cols; j0 += tile) {
+						int j1 = Math.min(dst.cols, j0 + tile);
+						for (int i = i0; i < i1; i++) {
+							int p = base + i * di + j0 * dj, q = dst.index(i, j0);
+							if (ch == 3) {
+								for (int j = j0; j < j1; j++, p += dj, q += 3) {
+									d[q] = s[p];
+									d[q + 1] = s[p + 1];
+									d[q + 2] = s[p + 2];
+								}
+							}
+							else {
+								for (int j = j0; j < j1; j++, p += dj, q += ch) {
+									for (int c = 0; c < ch; c++) {
+										d[q + c] = s[p + c];
+									}
+								}
+							}
+						}
+					}
+				}
+			}
+		});
+		return dst;
+	}
+
+	/**
+	 * Transposes a square raster in place, swapping each pixel above the diagonal with its mirror image below.
+	 * Each band swaps the pixels above the diagonal in its own rows, a tile's width at a time.
+	 */
+	private static void transposeSquare(final Raster r) {
+		final int n = r.rows, ch = r.channels;
+		final byte[] px = r.data;
+		TileScheduler.forRows(r, new TileScheduler.Band() {
+			public void run(int from, int to) {
+				for (int i0 = from; i0 < to; i0 += tile) {
+					int i1 = Math.min(to, i0 + tile);
+					for (int j0 = i0; j0 < n; j0 += tile) {
+						int j1 = Math.min(n, j0 + tile);
+						for (int i = i0; i < i1; i++) {
+							for (int j = Math.max(j0, i + 1); j < j1; j++) {
+								int p = r.index(i, j), q = r.index(j, i);
+								for (int c = 0; c < ch; c++) {
+									byte t = px[p + c];
+									px[p + c] = px[q + c];
+									px[q + c] = t;
+								}
+							}
+						}
+					}
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,150 @@
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of the point operation kernels, using the (incubating) Java Vector API.
+ * Works a vector of ints at a time, as many as the hardware does at once (8 with AVX2, 16 with AVX-512):
+ * that many bytes are widened to ints, weighted in 16.16 fixed point, and narrowed back down to bytes.
+ * That's the same int arithmetic as in FixedKernels, so the results are exactly the same as theirs
+ * (for any weights, including ones outside 0-1), and like theirs, can be 1 off from the double versions.
+ * (Doubles would take converting each vector of bytes in pieces, which the Vector API doesn't do quickly.)
+ * Leftover values at the end of a run are handled by the FixedKernels versions.
+ * Gray isn't overridden: pulling the interleaved channels apart, by gathers or by two-vector shuffles, made it
+ * 5 to 20 times slower than FixedKernels' plain loop, at both 256 and 512 bits.
+ * Only used when asked for, with the kernels.vector system property (see Kernels.get).
+ * Needs --add-modules jdk.incubator.vector both to compile and to run, and vectors of at least 8 ints (256 bits; see isSupported).
+ * Running this class checks its results against FixedKernels.
+ *
+ * @author Justin Chan, Dartmouth CS 10, Fall 2012
+ */
+public class VectorKernels extends FixedKernels {
+	private static final VectorSpecies<Integer> I = IntVector.SPECIES_PREFERRED;	// as many ints as the hardware does at once
+	private static final int lanes = I.length();
+	private static final VectorSpecies<Byte> B = bytes();													// the same number of bytes
+
+	/**
+	 * @throws IllegalStateException		if the hardware's vectors are too small (see isSupported)
+	 */
+	public VectorKernels() {
+		if (!isSupported()) {
+			throw new IllegalStateException("no 256-bit vectors");
+		}
+	}
+
+	/**
+	 * Whether the hardware's vectors are big enough, at least 8 ints (256 bits).
+	 */
+	public static boolean isSupported() {
+		return B != null;
+	}
+
+	/**
+	 * The byte species with as many lanes as I, or null if there's no such thing (fewer than 8 lanes).
+	 */
+	private static VectorSpecies<Byte> bytes() {
+		return lanes >= 8 ? VectorSpecies.of(byte.class, VectorShape.forBitSize(lanes * 8)) : null;
+	}
+
+	public boolean isVector() {
+		return true;
+	}
+
+	public void blend(byte[] a, int ap, byte[] b, int bp, int n, double w) {
+		int wa = fixed(w), wb = ONE - wa;
+		int k = 0;
+		for (; k + lanes <= n; k += lanes) {
+			IntVector blended = widen(ByteVector.fromArray(B, a, ap + k)).mul(wa)
+					.add(widen(ByteVector.fromArray(B, b, bp + k)).mul(wb));
+			narrow(blended.lanewise(VectorOperators.ASHR, 16)).intoArray(a, ap + k);
+		}
+		super.blend(a, ap + k, b, bp + k, n - k, w);
+	}
+
+	public void scale(byte[] px, int from, int to, double s) {
+		int s16 = fixed(s);
+		int p = from;
+		for (; p + lanes <= to; p += lanes) {
+			narrow(widen(ByteVector.fromArray(B, px, p)).mul(s16).lanewise(VectorOperators.ASHR, 16)).intoArray(px, p);
+		}
+		// Finish up the last (partial) pixels.
+		super.scale(px, p, to, s);
+	}
+
+	public void clamp(int[] src, int sp, byte[] dst, int dp, int n) {
+		int k = 0;
+		for (; k + lanes <= n; k += lanes) {
+			narrow(IntVector.fromArray(I, src, sp + k).max(0).min(255)).intoArray(dst, dp + k);
+		}
+		super.clamp(src, sp + k, dst, dp + k, n - k);
+	}
+
+	/**
+	 * Widens bytes, treated as unsigned (0-255), to ints.
+	 */
+	private static IntVector widen(ByteVector v) {
+		return ((IntVector) v.convertShape(VectorOperators.B2I, I, 0)).and(0xff);
+	}
+
+	/**
+	 * The low 8 bits of ints, i.e., (byte)v for each.
+	 */
+	private static ByteVector narrow(IntVector v) {
+		return (ByteVector) v.convertShape(VectorOperators.I2B, B, 0);
+	}
+
+	/**
+	 * Checks the vector versions against FixedKernels, over a range of weights and scale factors
+	 * (including the ends and beyond, and run lengths that leave some over), and says how many values differ.
+	 * @param args	ignored
+	 */
+	public static void main(String[] args) {
+		Kernels scalar = new FixedKernels();
+		VectorKernels vector = new VectorKernels();
+		java.util.SplittableRandom random = new java.util.SplittableRandom(1);
+		byte[] a = new byte[1027], b = new byte[a.length], x = new byte[a.length], y = new byte[a.length];
+		int[] sums = new int[a.length];
+		for (int k = 0; k < a.length; k++) {
+			// The extremes, and then everything in between.
+			a[k] = (byte) (k < 16 ? (k % 2) * 255 : random.nextInt(256));
+			b[k] = (byte) (k < 16 ? (k / 2 % 2) * 255 : random.nextInt(256));
+			sums[k] = random.nextInt(-300, 600);
+		}
+		double[] values = { -1, -0.5, -1e-9, 0, 1e-9, 0.1, 0.3, 0.5, 0.7, 0.9, 1 - 1e-9, 1, 1 + 1e-9, 1.2, 1.5, 2, 255 };
+		int wrong = 0, checks = 0;
+		for (double w : values) {
+			for (int n : new int[] { 0, lanes - 1, lanes, lanes + 1, a.length }) {
+				System.arraycopy(a, 0, x, 0, n);
+				System.arraycopy(a, 0, y, 0, n);
+				scalar.blend(x, 0, b, 0, n, w);
+				vector.blend(y, 0, b, 0, n, w);
+				wrong += differences(x, y, n);
+				System.arraycopy(a, 0, x, 0, n);
+				System.arraycopy(a, 0, y, 0, n);
+				scalar.scale(x, 0, n, w);
+				vector.scale(y, 0, n, w);
+				wrong += differences(x, y, n);
+				checks += 2 * n;
+			}
+		}
+		scalar.clamp(sums, 0, x, 0, a.length);
+		vector.clamp(sums, 0, y, 0, a.length);
+		wrong += differences(x, y, a.length);
+		checks += a.length;
+		System.out.println(lanes + " ints per vector: " + wrong + " of " + checks + " values differ");
+		if (wrong > 0) System.exit(1);
+	}
+
+	/**
+	 * How many of the first n values differ.
+	 */
+	private static int differences(byte[] x, byte[] y, int n) {
+		int count = 0;
+		for (int k = 0; k < n; k++) {
+			if (x[k] != y[k]) count++;
+		}
+		return count;
+	}
+}
@@ -2,7 +2,6 @@ import java.awt.*;
 import java.awt.event.*;
 import javax.swing.*;
 import com.googlecode.javacv.cpp.opencv_core.*;
-import static com.googlecode.javacv.cpp.opencv_highgui.*;
 import com.googlecode.javacv.FrameGrabber;
 import com.googlecode.javacv.OpenCVFrameGrabber;
 
@@ -28,7 +27,7 @@ public class WebcamBg extends JFrame {
 		canvas = new Canvas();
 
 		// Load replacement background image.
-		scenery = cvLoadImageM("img/baker.jpg");
+		scenery = ImageCache.load("img/baker.jpg");
 		if (scenery == null) {
 			System.out.println("image not found!");
 			System.exit(1);
@@ -55,19 +54,30 @@ public class WebcamBg extends JFrame {
 	 */
 	private void bgSubtract() {
 		if (background != null) {
-			for (int i = 0; i < image.rows(); i++) {
-				for (int j = 0; j < image.cols(); j++) {
-					double d = 0;
-					// Euclidean distance squared between colors
+			bgSubtract(image, background, scenery);
+		}
+	}
+
+	/**
+	 * Replaces the pixels of the image that look like the background with those of the scenery.
+	 * (Static, without the webcam or window, so it can also be benchmarked.)
+	 * @param image				the image to update
+	 * @param background	what the background looks like
+	 * @param scenery			what to replace it with
+	 */
+	public static void bgSubtract(CvMat image, CvMat background, CvMat scenery) {
+		for (int i = 0; i < image.rows(); i++) {
+			for (int j = 0; j < image.cols(); j++) {
+				double d = 0;
+				// Euclidean distance squared between colors
+				for (int c = 0; c < 3; c++) {
+					d += (image.get(i, j, c) - background.get(i, j, c))
+							* (image.get(i, j, c) - background.get(i, j, c));
+				}
+				if (d < bgDiff) {
+					// Close enough to background, so replace
 					for (int c = 0; c < 3; c++) {
-						d += (image.get(i, j, c) - background.get(i, j, c))
-								* (image.get(i, j, c) - background.get(i, j, c));
-					}
-					if (d < bgDiff) {
-						// Close enough to background, so replace
-						for (int c = 0; c < 3; c++) {
-							image.put(i, j, c, scenery.get(i, j, c));
-						}
+						image.put(i, j, c, scenery.get(i, j, c));
 					}
 				}
 			}
@@ -45,6 +45,17 @@ public class WebcamColorTracking extends JFrame {
 	 * Determines which point is closest to the trackColor, puts it in this.where
 	 */
 	private void track() {
+		where = track(image, trackColor);
+	}
+
+	/**
+	 * Finds the point whose color is closest to the given color.
+	 * (Static, without the webcam or window, so it can also be benchmarked.)
+	 * @param image				the image to look in
+	 * @param trackColor	the color to look for
+	 * @return						the closest point
+	 */
+	public static Point track(CvMat image, Color trackColor) {
 		int x = 0, y = 0; // coordinates with best matching color
 		double closest = 10000; // start with a too-high number so that everything will be smaller
 		for (int i = 0; i < image.rows(); i++) {
@@ -59,7 +70,7 @@ public class WebcamColorTracking extends JFrame {
 				}
 			}
 		}
-		where = new Point(x,y);
+		return new Point(x,y);
 	}
 	
 	private class Canvas extends JComponent {